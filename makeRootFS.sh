@@ -106,8 +106,20 @@ if [[ ! -f "$MYPATH/deps/SuspendResumeAgent" ]]; then
   $MYPATH/deps/jdk/bin/javac -d $MYPATH/deps/SuspendResumeAgent \
                              $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/SuspendResumeAgent.java \
                              $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/utils/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/cds/*.java \
                              $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/crac/*.java \
-                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/crac/impl/*.java
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/crac/impl/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/jit/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/memory/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/metrics/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/policy/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/pool/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/quiesce/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/readiness/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/resize/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/schedule/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/shrink/*.java \
+                             $MYPATH/tools/SuspendResumeAgent/src/java/io/simonis/warmup/*.java
   g++ -fPIC -shared -I $MYPATH/deps/jdk/include/ -I $MYPATH/deps/jdk/include/linux/ \
       -o $MYPATH/deps/SuspendResumeAgent/libSuspendResumeAgent.so \
       $MYPATH/tools/SuspendResumeAgent/src/cpp/SuspendResumeAgent.cpp
@@ -2,10 +2,81 @@
 // g++ -fPIC -shared -I $JAVA_HOME/include/ -I $JAVA_HOME/include/linux/ -o libSuspendResumeAgent.so SuspendResumeAgent.cpp
 //
 #include <jvmti.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <netinet/in.h>
+#include <poll.h>
 #include <stdio.h>
 #include <string.h>
+#include <sys/socket.h>
+#include <unistd.h>
 
 jvmtiEnv *jvmti = NULL;
+// True if the VM supports virtual threads and we could add the 'can_support_virtual_threads' capability
+static bool virtual_threads = false;
+
+// JVMTI_VERSION is an enum constant, so the preprocessor can't tell whether we're
+// compiled with pre-JDK 21 headers which don't know about virtual threads. We therefore
+// always call SuspendAllVirtualThreads/ResumeAllVirtualThreads through their slots 118/119
+// in the function table (called 'reserved118/119' in older headers) and set the
+// 'can_support_virtual_threads' capability which directly follows
+// 'can_generate_sampled_object_alloc_events' by its position.
+typedef jvmtiError (JNICALL *AllVirtualThreadsFn) (jvmtiEnv* env, jint except_count, const jthread* except_list);
+
+static AllVirtualThreadsFn functionSlot(int slot) {
+  // Function numbers are 1-based
+  return (AllVirtualThreadsFn)((void**)jvmti->functions)[slot - 1];
+}
+
+static jvmtiError SuspendAllVirtualThreads() {
+  return functionSlot(118)(jvmti, 0, NULL);
+}
+
+static jvmtiError ResumeAllVirtualThreads() {
+  return functionSlot(119)(jvmti, 0, NULL);
+}
+
+static void set_can_support_virtual_threads(jvmtiCapabilities *capabilities) {
+  jvmtiCapabilities sampled;
+  memset(&sampled, 0, sizeof(sampled));
+  sampled.can_generate_sampled_object_alloc_events = 1;
+  unsigned char *from = (unsigned char*)&sampled;
+  unsigned char *to = (unsigned char*)capabilities;
+  for (size_t i = 0; i < sizeof(jvmtiCapabilities); i++) {
+    if (from[i] != 0) {
+      if (from[i] == 0x80) {
+        to[i + 1] |= 0x01;
+      } else {
+        to[i] |= from[i] << 1;
+      }
+      return;
+    }
+  }
+}
+
+// Virtual threads are only available since JDK 21. Older VMs would
+// treat the 'can_support_virtual_threads' bit as an unknown capability.
+static void setupVirtualThreads() {
+  static bool initialized = false;
+  if (initialized) {
+    return;
+  }
+  initialized = true;
+  jint version;
+  if (jvmti->GetVersionNumber(&version) != JVMTI_ERROR_NONE ||
+      ((version & JVMTI_VERSION_MASK_MAJOR) >> JVMTI_VERSION_SHIFT_MAJOR) < 21) {
+    return;
+  }
+  jvmtiCapabilities capabilities;
+  memset(&capabilities, 0, sizeof(capabilities));
+  set_can_support_virtual_threads(&capabilities);
+  jvmtiError error = jvmti->AddCapabilities(&capabilities);
+  if (error != JVMTI_ERROR_NONE) {
+    printf("Can't add 'can_support_virtual_threads' capability: %d\n", error);
+  } else {
+    virtual_threads = true;
+  }
+}
 
 static int setupJVMTI(JNIEnv *env, JavaVM *jvm) {
   if (jvmti == NULL) {
@@ -39,6 +110,7 @@ static int setupJVMTI(JNIEnv *env, JavaVM *jvm) {
     printf("Can't add 'can_suspend' capability: %d\n", error);
     return JNI_ERR;
   }
+  setupVirtualThreads();
   return JNI_OK;
 }
 
@@ -66,86 +138,277 @@ JNIEXPORT jint JNICALL Java_io_simonis_SuspendResumeAgent_forceGC(JNIEnv *env, j
   return error;
 }
 
-// Suspend all threads (excluding ourselves) and return the number of suspended threads.
-// If not all threads could be suspended, return the number of threads for which
-// suspension failed as a negative number.
-extern "C"
-JNIEXPORT jint JNICALL Java_io_simonis_SuspendResumeAgent_suspendThreads(JNIEnv *env, jclass cls) {
-  setupJVMTI(env, NULL);
+// Returns all platform threads except the current one as local references
+// in a JVMTI allocated array which has to be freed with releaseThreads().
+static jint getOtherThreads(JNIEnv *env, jthread **threads) {
   jthread current;
-  jvmti->GetCurrentThread(&current);
   jint threads_count;
-  jthread *threads;
-  jvmti->GetAllThreads(&threads_count, &threads);
+  if (jvmti->GetCurrentThread(&current) != JVMTI_ERROR_NONE ||
+      jvmti->GetAllThreads(&threads_count, threads) != JVMTI_ERROR_NONE) {
+    printf("Can't get threads\n");
+    *threads = NULL;
+    return 0;
+  }
+  // Compact the array because the current thread isn't necessarily
+  // in it (e.g. if it is a virtual thread)
+  jint count = 0;
   for (int t = 0; t < threads_count; t++) {
-    jvmtiThreadInfo ti;
-    jvmti->GetThreadInfo(threads[t], &ti);
-    // printf("%d: %s %s\n", t, ti.name, env->IsSameObject(current, threads[t]) ? "(current)" : "");
-    // We don't want to suspend ourselves
-    if (env->IsSameObject(current, threads[t])) {
-      threads[t] = threads[threads_count - 1];
+    if (env->IsSameObject(current, (*threads)[t])) {
+      env->DeleteLocalRef((*threads)[t]);
+    } else {
+      (*threads)[count++] = (*threads)[t];
     }
   }
-  jvmtiError *errors = new jvmtiError[threads_count];
-  jvmtiError error = jvmti->SuspendThreadList(threads_count - 1, threads, errors);
-  if (error != JVMTI_ERROR_NONE) {
-    printf("Error during SuspendThreadList: %d\n", error);
+  env->DeleteLocalRef(current);
+  return count;
+}
+
+static void releaseThreads(JNIEnv *env, jthread *threads, jint count) {
+  for (int t = 0; t < count; t++) {
+    env->DeleteLocalRef(threads[t]);
+  }
+  jvmti->Deallocate((unsigned char*)threads);
+}
+
+// Report every thread which couldn't be suspended/resumed to Java
+// by calling SuspendResumeAgent::threadFailure(Thread, int) and return the
+// number of failed threads. Thread names are only queried for failed threads.
+static int reportFailures(JNIEnv *env, jclass cls, const char *action, jthread *threads, jvmtiError *errors, jint count) {
+  static jmethodID threadFailure = NULL;
+  if (threadFailure == NULL) {
+    threadFailure = env->GetStaticMethodID(cls, "threadFailure", "(Ljava/lang/Thread;I)V");
+    if (threadFailure == NULL) {
+      env->ExceptionClear();
+    }
   }
   int failCount = 0;
-  for (int t = 0; t < threads_count - 1; t++) {
-    jvmtiThreadInfo ti;
-    jvmti->GetThreadInfo(threads[t], &ti);
+  for (int t = 0; t < count; t++) {
     if (errors[t] != JVMTI_ERROR_NONE) {
-      printf("Failed to suspend thread %d: %s (%d)\n", t, ti.name, errors[t]);
+      jvmtiThreadInfo ti;
+      if (jvmti->GetThreadInfo(threads[t], &ti) == JVMTI_ERROR_NONE) {
+        printf("Failed to %s thread %d: %s (%d)\n", action, t, ti.name, errors[t]);
+        jvmti->Deallocate((unsigned char*)ti.name);
+        env->DeleteLocalRef(ti.thread_group);
+        env->DeleteLocalRef(ti.context_class_loader);
+      }
+      if (threadFailure != NULL) {
+        env->CallStaticVoidMethod(cls, threadFailure, threads[t], (jint)errors[t]);
+        if (env->ExceptionCheck()) {
+          env->ExceptionDescribe();
+          env->ExceptionClear();
+        }
+      }
       failCount++;
-    } else {
-      // printf("Successfully suspended thread %d: %s\n", t, ti.name);
     }
   }
+  return failCount;
+}
+
+// Suspend all threads (excluding ourselves) and return the number of suspended
+// platform threads. If not all threads could be suspended, return the number of
+// threads for which suspension failed as a negative number. On JDK 21 and later
+// all virtual threads are suspended as well.
+extern "C"
+JNIEXPORT jint JNICALL Java_io_simonis_SuspendResumeAgent_suspendThreads0(JNIEnv *env, jclass cls) {
+  setupJVMTI(env, NULL);
+  if (virtual_threads) {
+    // Suspend virtual threads first, while their carrier threads are still running
+    jvmtiError error = SuspendAllVirtualThreads();
+    if (error != JVMTI_ERROR_NONE) {
+      printf("Error during SuspendAllVirtualThreads: %d\n", error);
+    }
+  }
+  jthread *threads;
+  jint count = getOtherThreads(env, &threads);
+  if (count == 0) {
+    releaseThreads(env, threads, 0);
+    return 0;
+  }
+  jvmtiError *errors;
+  jvmti->Allocate(count * sizeof(jvmtiError), (unsigned char**)&errors);
+  jvmtiError error = jvmti->SuspendThreadList(count, threads, errors);
+  if (error != JVMTI_ERROR_NONE) {
+    printf("Error during SuspendThreadList: %d\n", error);
+  }
+  int failCount = reportFailures(env, cls, "suspend", threads, errors, count);
+  jvmti->Deallocate((unsigned char*)errors);
+  releaseThreads(env, threads, count);
   if (failCount > 0) {
-    printf("Error during SuspendThreadList: can't suspend %d out of %d threads\n", failCount, threads_count - 1);
+    printf("Error during SuspendThreadList: can't suspend %d out of %d threads\n", failCount, count);
     return - failCount;
   } else {
-    printf("SuspendThreadList successfully suspended %d threads\n", threads_count - 1);
-    return threads_count - 1;
+    printf("SuspendThreadList successfully suspended %d threads\n", count);
+    return count;
   }
 }
 
-// Resume all threads and return the number of resumed thread excluding
+// Resume all threads and return the number of resumed platform threads excluding
 // ourselves since we haven't been suspended by suspendThreads().
 // If not all threads could be resumed, return the number of threads for which resuming
-// failed as a negative number.
+// failed as a negative number. On JDK 21 and later all virtual threads are resumed as well.
 extern "C"
-JNIEXPORT jint JNICALL Java_io_simonis_SuspendResumeAgent_resumeThreads(JNIEnv *env, jclass cls) {
+JNIEXPORT jint JNICALL Java_io_simonis_SuspendResumeAgent_resumeThreads0(JNIEnv *env, jclass cls) {
   setupJVMTI(env, NULL);
-  jthread current;
-  jvmti->GetCurrentThread(&current);
-  jint threads_count;
   jthread *threads;
-  jvmti->GetAllThreads(&threads_count, &threads);
-  jvmtiError *errors = new jvmtiError[threads_count];
-  jvmtiError error = jvmti->ResumeThreadList(threads_count, threads, errors);
-  if (error != JVMTI_ERROR_NONE) {
-    printf("Error during ResumeThreadList: %d\n", error);
-  }
+  jint count = getOtherThreads(env, &threads);
   int failCount = 0;
-  for (int t = 0; t < threads_count; t++) {
-    jvmtiThreadInfo ti;
-    jvmti->GetThreadInfo(threads[t], &ti);
-    if (errors[t] != JVMTI_ERROR_NONE &&
-        // Our current thread is not suspended
-        !(errors[t] == JVMTI_ERROR_THREAD_NOT_SUSPENDED && env->IsSameObject(current, threads[t]))) {
-      printf("Failed to resume thread %d: %s (%d)\n", t, ti.name, errors[t]);
-      failCount++;
-    } else {
-      // printf("Successfully resumed thread %d: %s\n", t, ti.name);
+  if (count > 0) {
+    jvmtiError *errors;
+    jvmti->Allocate(count * sizeof(jvmtiError), (unsigned char**)&errors);
+    jvmtiError error = jvmti->ResumeThreadList(count, threads, errors);
+    if (error != JVMTI_ERROR_NONE) {
+      printf("Error during ResumeThreadList: %d\n", error);
+    }
+    failCount = reportFailures(env, cls, "resume", threads, errors, count);
+    jvmti->Deallocate((unsigned char*)errors);
+  }
+  releaseThreads(env, threads, count);
+  if (virtual_threads) {
+    // Resume virtual threads last, once their carrier threads are running again
+    jvmtiError error = ResumeAllVirtualThreads();
+    if (error != JVMTI_ERROR_NONE) {
+      printf("Error during ResumeAllVirtualThreads: %d\n", error);
     }
   }
   if (failCount > 0) {
-    printf("Error during ResumeThreadList: can't resume %d out of %d threads\n", failCount, threads_count - 1);
+    printf("Error during ResumeThreadList: can't resume %d out of %d threads\n", failCount, count);
     return - failCount;
   } else {
-    printf("ResumeThreadList successfully resumed %d threads\n", threads_count - 1);
-    return threads_count - 1;
+    printf("ResumeThreadList successfully resumed %d threads\n", count);
+    return count;
+  }
+}
+
+// Native support for io.simonis.policy.ResourcePolicyEngine. All the functions
+// return 0 on success or -errno on failure.
+
+// Move 'newfd' onto 'fd' (which is atomically closed by dup2()) and close 'newfd'.
+// dup2() clears FD_CLOEXEC on 'fd' so we restore the descriptor flags of the original 'fd'.
+static int replaceFd(int newfd, int fd) {
+  int flags = fcntl(fd, F_GETFD);
+  int result = 0;
+  if (dup2(newfd, fd) < 0 || (flags > 0 && fcntl(fd, F_SETFD, flags) < 0)) {
+    result = -errno;
+  }
+  close(newfd);
+  return result;
+}
+
+// Replace 'fd' by /dev/null. This releases the underlying file or socket but keeps
+// the descriptor number reserved for reopening it later.
+extern "C"
+JNIEXPORT jint JNICALL Java_io_simonis_policy_ResourcePolicyEngine_detach0(JNIEnv *env, jclass cls, jint fd) {
+  int devnull = open("/dev/null", O_RDWR | O_CLOEXEC);
+  if (devnull < 0) {
+    return -errno;
+  }
+  return replaceFd(devnull, fd);
+}
+
+extern "C"
+JNIEXPORT jint JNICALL Java_io_simonis_policy_ResourcePolicyEngine_reopenFile0(JNIEnv *env, jclass cls, jint fd,
+                                                                                jstring path, jint flags, jlong position) {
+  const char *p = env->GetStringUTFChars(path, NULL);
+  if (p == NULL) {
+    return -ENOMEM;
+  }
+  // Never create or truncate the file again
+  int newfd = open(p, flags & ~(O_CREAT | O_EXCL | O_TRUNC));
+  int error = errno;
+  env->ReleaseStringUTFChars(path, p);
+  if (newfd < 0) {
+    return -error;
+  }
+  if (!(flags & O_APPEND) && lseek(newfd, position, SEEK_SET) < 0) {
+    error = errno;
+    close(newfd);
+    return -error;
+  }
+  return replaceFd(newfd, fd);
+}
+
+// IPv4 addresses of IPv6 sockets are converted to IPv4-mapped IPv6 addresses.
+static socklen_t toSockaddr(JNIEnv *env, jboolean ipv6, jbyteArray addr, jint port, struct sockaddr_storage *ss) {
+  memset(ss, 0, sizeof(struct sockaddr_storage));
+  jsize len = env->GetArrayLength(addr);
+  if (!ipv6 && len == 4) {
+    struct sockaddr_in *sin = (struct sockaddr_in*)ss;
+    sin->sin_family = AF_INET;
+    sin->sin_port = htons(port);
+    env->GetByteArrayRegion(addr, 0, 4, (jbyte*)&sin->sin_addr);
+    return sizeof(struct sockaddr_in);
+  } else {
+    struct sockaddr_in6 *sin6 = (struct sockaddr_in6*)ss;
+    sin6->sin6_family = AF_INET6;
+    sin6->sin6_port = htons(port);
+    if (len == 4) {
+      sin6->sin6_addr.s6_addr[10] = 0xff;
+      sin6->sin6_addr.s6_addr[11] = 0xff;
+      env->GetByteArrayRegion(addr, 0, 4, (jbyte*)&sin6->sin6_addr.s6_addr[12]);
+    } else {
+      env->GetByteArrayRegion(addr, 0, 16, (jbyte*)&sin6->sin6_addr);
+    }
+    return sizeof(struct sockaddr_in6);
+  }
+}
+
+// Connect with a timeout by doing a non-blocking connect() followed by poll().
+static int connectWithTimeout(int sock, struct sockaddr *sa, socklen_t len, int timeoutMillis) {
+  int fl = fcntl(sock, F_GETFL);
+  fcntl(sock, F_SETFL, fl | O_NONBLOCK);
+  if (connect(sock, sa, len) < 0) {
+    if (errno != EINPROGRESS) {
+      return -errno;
+    }
+    struct pollfd pfd = { sock, POLLOUT, 0 };
+    int ready = poll(&pfd, 1, timeoutMillis);
+    if (ready <= 0) {
+      return ready == 0 ? -ETIMEDOUT : -errno;
+    }
+    int error = 0;
+    socklen_t elen = sizeof(error);
+    getsockopt(sock, SOL_SOCKET, SO_ERROR, &error, &elen);
+    if (error != 0) {
+      return -error;
+    }
+  }
+  return 0;
+}
+
+// Create a new socket like the one which was detached from 'fd', bind/listen or connect it
+// and move it onto 'fd'. The original file status flags (e.g. O_NONBLOCK) are restored.
+extern "C"
+JNIEXPORT jint JNICALL Java_io_simonis_policy_ResourcePolicyEngine_reopenSocket0(JNIEnv *env, jclass cls, jint fd,
+                                                                                  jboolean stream, jboolean ipv6,
+                                                                                  jbyteArray local, jint localPort,
+                                                                                  jbyteArray remote, jint remotePort,
+                                                                                  jboolean listening, jint flags, jint timeoutMillis) {
+  struct sockaddr_storage ss;
+  socklen_t len = toSockaddr(env, ipv6, local, localPort, &ss);
+  int sock = socket(ss.ss_family, (stream ? SOCK_STREAM : SOCK_DGRAM) | SOCK_CLOEXEC, 0);
+  if (sock < 0) {
+    return -errno;
+  }
+  int result = 0;
+  if (listening || !stream) {
+    int one = 1;
+    setsockopt(sock, SOL_SOCKET, SO_REUSEADDR, &one, sizeof(one));
+    if (bind(sock, (struct sockaddr*)&ss, len) < 0) {
+      result = -errno;
+    } else if (listening && listen(sock, SOMAXCONN) < 0) {
+      result = -errno;
+    }
+  }
+  if (result == 0 && remote != NULL) {
+    len = toSockaddr(env, ipv6, remote, remotePort, &ss);
+    result = connectWithTimeout(sock, (struct sockaddr*)&ss, len, timeoutMillis);
+  }
+  if (result == 0 && fcntl(sock, F_SETFL, flags & (O_NONBLOCK | O_APPEND | O_ASYNC)) < 0) {
+    result = -errno;
+  }
+  if (result != 0) {
+    close(sock);
+    return result;
   }
+  return replaceFd(sock, fd);
 }
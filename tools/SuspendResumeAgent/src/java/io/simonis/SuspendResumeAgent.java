@@ -8,16 +8,43 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.instrument.Instrumentation;
-import java.lang.management.ManagementFactory;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
-import javax.management.MBeanServer;
-import javax.management.ObjectName;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import io.simonis.crac.Core;
 import io.simonis.crac.CheckpointException;
 import io.simonis.crac.RestoreException;
+import io.simonis.cds.DynamicArchive;
+import io.simonis.crac.impl.LazyRestorer;
+import io.simonis.jit.CompilerQuiescence;
+import io.simonis.memory.PageMapCollector;
+import io.simonis.memory.PageToucher;
+import io.simonis.memory.RegionMap;
+import io.simonis.memory.SoftDirty;
+import io.simonis.memory.WorkingSet;
+import io.simonis.metrics.Metrics;
+import io.simonis.metrics.MetricsServer;
+import io.simonis.policy.ResourcePolicy;
+import io.simonis.policy.ResourcePolicyEngine;
+import io.simonis.quiesce.Quiescence;
+import io.simonis.readiness.Readiness;
+import io.simonis.resize.Machine;
+import io.simonis.schedule.Downtime;
+import io.simonis.shrink.Preparation;
+import io.simonis.shrink.ShrinkPipeline;
+import io.simonis.shrink.Uncommit;
+import io.simonis.utils.DiagnosticCommand;
+import io.simonis.utils.MemoryStats;
+import io.simonis.warmup.Warmup;
+import io.simonis.utils.Logger;
 
 public class SuspendResumeAgent implements Runnable {
 
@@ -35,29 +62,122 @@ public class SuspendResumeAgent implements Runnable {
     }
   }
 
-  private static MBeanServer mbserver;
-  private static ObjectName diagCmd;
-
-  static void loadDiagnosticCommandMBean() {
-    try {
-      mbserver = ManagementFactory.getPlatformMBeanServer();
-      diagCmd = new ObjectName("com.sun.management:type=DiagnosticCommand");
-    } catch (Exception e) {
-      System.err.println("Can't load com.sun.management:type=DiagnosticCommand");
-      e.printStackTrace();
-    }
-  }
-
   static {
     // System.out.println(SuspendResumeAgent.class.getResource("/libSuspendResumeAgent.so"));
     loadNativeLibrary();
-    loadDiagnosticCommandMBean();
+    // Use JVMTI for the full GC
+    ShrinkPipeline.register("gc", () -> forceGC());
   }
-  public static native int suspendThreads();
-  public static native int resumeThreads();
+  private static native int suspendThreads0();
+  private static native int resumeThreads0();
   public static native int forceGC();
 
+  /**
+   * A thread which couldn't be suspended or resumed together with the JVMTI error code.
+   */
+  public record ThreadFailure(Thread thread, String name, int error) {}
+
+  // Failures of the currently running suspendThreads0()/resumeThreads0() call
+  private static ArrayList<ThreadFailure> failures;
+  // Failures of the last completed call. We don't use locks here, because
+  // they might be held by a suspended thread which would lead to deadlocks.
+  private static volatile List<ThreadFailure> threadFailures = List.of();
+
+  static {
+    // Make sure ThreadFailure is loaded before any thread gets suspended,
+    // because a suspended thread might hold a class loader lock.
+    new ThreadFailure(null, null, 0);
+  }
+
+  // Called from native code for every thread which couldn't be suspended or resumed.
+  private static void threadFailure(Thread thread, int error) {
+    if (failures != null) {
+      failures.add(new ThreadFailure(thread, thread.getName(), error));
+    }
+  }
+
+  /**
+   * Suspends all threads except the current one. Must not be called concurrently.
+   *
+   * @return the number of suspended platform threads or the negative number of threads which couldn't be suspended
+   */
+  public static int suspendThreads() {
+    failures = new ArrayList<>();
+    int result = suspendThreads0();
+    threadFailures = Collections.unmodifiableList(failures);
+    failures = null;
+    return result;
+  }
+
+  /**
+   * Resumes all threads suspended by {@link #suspendThreads()}. Must not be called concurrently.
+   *
+   * @return the number of resumed platform threads or the negative number of threads which couldn't be resumed
+   */
+  public static int resumeThreads() {
+    failures = new ArrayList<>();
+    int result = resumeThreads0();
+    threadFailures = Collections.unmodifiableList(failures);
+    failures = null;
+    return result;
+  }
+
+  /**
+   * Returns the threads which failed during the last call to {@code suspendThreads()} or {@code resumeThreads()}.
+   */
+  public static List<ThreadFailure> getThreadFailures() {
+    return threadFailures;
+  }
+
   static final int port = Integer.getInteger("io.simonis.SuspendResumeAgent.port", 1234);
+  // Deadline for draining the registered Quiescers on SUSPEND (0 disables quiescing)
+  static final long quiesceTimeout = Long.getLong("io.simonis.SuspendResumeAgent.quiesceTimeout", 5000);
+  // Comma separated list of ShrinkPipeline steps executed on SUSPEND
+  static final String shrinkSteps = System.getProperty("io.simonis.SuspendResumeAgent.shrinkSteps", ShrinkPipeline.DEFAULT_STEPS);
+  // Steps executed in the background by PREPARE or every prepareInterval ms (0 disables periodic preparation)
+  static final String prepareSteps = System.getProperty("io.simonis.SuspendResumeAgent.prepareSteps", "shrink_heap,zero_unused,trim_native");
+  static final long prepareInterval = Long.getLong("io.simonis.SuspendResumeAgent.prepareInterval", 0);
+  // Steps executed on SUSPEND instead of shrinkSteps if a preparation completed less than prepareMaxAge ms ago
+  static final String suspendDeltaSteps = System.getProperty("io.simonis.SuspendResumeAgent.suspendDeltaSteps", "gc,zero_unused");
+  static final long prepareMaxAge = Long.getLong("io.simonis.SuspendResumeAgent.prepareMaxAge", 60_000);
+  // Wait up to compileQueueTimeout ms on SUSPEND for the compile queues to drain after
+  // force-compiling the methods from the hotMethods file (one "Class::method" per line).
+  // Waiting defaults to 5s if hot methods are given, because they are compiled asynchronously.
+  static final String hotMethods = System.getProperty("io.simonis.SuspendResumeAgent.hotMethods");
+  static final long compileQueueTimeout = Long.getLong("io.simonis.SuspendResumeAgent.compileQueueTimeout", hotMethods != null ? 5000 : 0);
+  // Dynamic AppCDS archive written by the CDS command and (if cdsOnSuspend is set) on SUSPEND
+  static final String cdsArchive = System.getProperty("io.simonis.SuspendResumeAgent.cdsArchive");
+  static final boolean cdsOnSuspend = Boolean.getBoolean("io.simonis.SuspendResumeAgent.cdsOnSuspend");
+  // Steps executed by UNCOMMIT to return memory to the guest (and from there to the balloon device)
+  static final String uncommitSteps = System.getProperty("io.simonis.SuspendResumeAgent.uncommitSteps", "shrink_heap,trim_native");
+  // The machine we were running on when the last SUSPEND happened
+  private static volatile Machine suspendMachine;
+  // Replay recorded requests and warm-up tasks in the background after RESUME
+  static final boolean warmup = Boolean.getBoolean("io.simonis.SuspendResumeAgent.warmup");
+  // Pre-touch the committed memory of the given NMT categories (and an optional list of pages) after RESUME.
+  // Without NMT, the regions from /proc/self/maps are only categorized as "Code" and "Anonymous".
+  static final boolean pretouch = Boolean.getBoolean("io.simonis.SuspendResumeAgent.pretouch");
+  static final String pretouchOrder = System.getProperty("io.simonis.SuspendResumeAgent.pretouchOrder", "Code,Metaspace,Class,Shared class space,Java Heap,Anonymous");
+  static final String pretouchPageList = System.getProperty("io.simonis.SuspendResumeAgent.pretouchPageList");
+  static final int pretouchThreads = Integer.getInteger("io.simonis.SuspendResumeAgent.pretouchThreads", Runtime.getRuntime().availableProcessors());
+  // Clear the soft-dirty bits after RESUME and report the pages dirtied since then on SUSPEND
+  static final boolean softDirty = Boolean.getBoolean("io.simonis.SuspendResumeAgent.softDirty");
+  // Record the pages which become resident or are accessed during the first workingSet ms after RESUME
+  static final long workingSet = Long.getLong("io.simonis.SuspendResumeAgent.workingSet", 0);
+  static final long workingSetInterval = Long.getLong("io.simonis.SuspendResumeAgent.workingSetInterval", 100);
+  // A crac-resource-policies.yaml file with the policies for open file descriptors
+  static final String resourcePolicies = System.getProperty("io.simonis.SuspendResumeAgent.resourcePolicies");
+  static final int reconnectThreads = Integer.getInteger("io.simonis.SuspendResumeAgent.reconnectThreads", 8);
+  static final int reconnectTimeout = Integer.getInteger("io.simonis.SuspendResumeAgent.reconnectTimeout", 2000);
+  // Address and port of the Prometheus metrics endpoint (port 0 disables it)
+  static final String metricsHost = System.getProperty("io.simonis.SuspendResumeAgent.metricsHost", "127.0.0.1");
+  static final int metricsPort = Integer.getInteger("io.simonis.SuspendResumeAgent.metricsPort", 0);
+  // Take the G1 regions reported by REGIONS from a JFR recording. This permanently starts JFR in the VM.
+  static final boolean regionsJfr = Boolean.getBoolean("io.simonis.SuspendResumeAgent.regionsJfr");
+  // Strongly referenced here because Contexts only keep weak references to their Resources
+  private static ResourcePolicyEngine policyEngine;
+  // Only available if we were started as an agent
+  private static Instrumentation instrumentation;
 
   public void run() {
     ServerSocket serverSocket;
@@ -76,26 +196,157 @@ public class SuspendResumeAgent implements Runnable {
         while ((line = in.readLine()) != null) {
           out.println(line);
           if ("SUSPEND".equals(line)) {
+            long start = System.nanoTime();
+            boolean error = false;
+            if (quiesceTimeout > 0) {
+              for (Quiescence.Result r : Quiescence.quiesce(TimeUnit.MILLISECONDS.toNanos(quiesceTimeout))) {
+                out.println(r);
+              }
+            }
             try {
-              Core.getGlobalContext().beforeCheckpoint(null);
+              Core.getRootContext().beforeCheckpoint(null);
             } catch (CheckpointException ce) {
+              error = true;
               out.println("Error when calling beforeCheckpoint()");
               ce.printStackTrace(out);
             }
-            forceGC();
-            executeJcmd("System.zero_unused_memory", new String[] {}, out);
-            executeJcmd("System.trim_native_heap", new String[] {}, out);
-            suspendThreads();
+            if (compileQueueTimeout > 0 || hotMethods != null) {
+              out.println(CompilerQuiescence.quiesce(hotMethods(), compileQueueTimeout, instrumentation));
+            }
+            if (cdsOnSuspend && cdsArchive != null) {
+              // Dump after quiescing, so the archive contains the complete warmed-up class set
+              out.println(DynamicArchive.dump(cdsArchive));
+            }
+            List<ShrinkPipeline.Result> prepared = Preparation.block(prepareMaxAge);
+            if (prepared != null) {
+              out.println("Using background preparation:");
+              prepared.forEach(out::println);
+              shrink(suspendDeltaSteps, out);
+            } else {
+              shrink(shrinkSteps, out);
+            }
+            if (softDirty) {
+              // After shrinking, so the report matches what ends up in the next diff snapshot
+              dirty(out);
+            }
+            // Write out buffered log events before the logging threads get suspended
+            Logger.flush();
+            suspendMachine = Machine.current();
+            Downtime.suspend();
+            Metrics.checkpoint(System.nanoTime() - start, error, MemoryStats.used(true), MemoryStats.committed(true));
+            Metrics.suspended(suspendThreads());
             client.close();
             break;
           } else if ("RESUME".equals(line)) {
+            long start = System.nanoTime();
+            boolean error = false;
             resumeThreads();
+            if (softDirty) {
+              // As early as possible, so everything written after the restore is tracked
+              clearRefs(out);
+            }
+            if (workingSet > 0) {
+              // Before pre-touching and afterRestore(), which already access pages
+              WorkingSet.start(workingSet, workingSetInterval);
+            }
+            // DowntimeAware resources will be notified in afterRestore()
+            out.println(Downtime.resume());
+            Machine machine = Machine.current();
+            if (suspendMachine != null && !machine.equals(suspendMachine)) {
+              // Registered PoolResizers will adapt their pools in afterRestore()
+              out.println("Restored on " + machine + " (was " + suspendMachine + ")");
+            }
+            if (pretouch) {
+              PageToucher.start(pretouchOrder, pretouchPageList, pretouchThreads);
+            }
             try {
-              Core.getGlobalContext().afterRestore(null);
+              Core.getRootContext().afterRestore(null);
             } catch (RestoreException re) {
+              error = true;
               out.println("Error when calling afterRestore()");
               re.printStackTrace(out);
             }
+            Quiescence.resume();
+            Preparation.unblock();
+            Metrics.restore(System.nanoTime() - start, error);
+            Logger.flush();
+            // Restore the remaining lazy resources in the background
+            LazyRestorer.start();
+            if (warmup) {
+              Warmup.start();
+            }
+          } else if ("POLICIES".equals(line)) {
+            out.print(policyEngine == null ? "No resource policies configured\n" : policyEngine.report());
+            out.flush();
+          } else if ("UNCOMMIT".equals(line)) {
+            // Free as much memory as possible so the host can inflate the balloon by 'balloon_mib'
+            out.println(Uncommit.run(uncommitSteps));
+          } else if ("CDS".equals(line) || line.startsWith("CDS ")) {
+            // Dump a dynamic AppCDS archive to the given (or the configured) file, e.g. "CDS /tmp/app.jsa"
+            String[] split = line.split("\\h");
+            String file = split.length > 1 ? split[1] : cdsArchive;
+            out.println(file == null ? "No CDS archive configured" : DynamicArchive.dump(file));
+          } else if ("JIT".equals(line)) {
+            out.println(CompilerQuiescence.quiesce(List.of(), 0, instrumentation));
+          } else if ("READINESS".equals(line)) {
+            out.println(Readiness.estimate());
+          } else if (line.startsWith("REGIONS")) {
+            // Write the heap, code heap and CDS region map for the UffdVisualizer to the given
+            // file and print a summary, or print the whole map if no file is given, e.g. "REGIONS /tmp/regions.txt"
+            String[] split = line.split("\\h");
+            List<RegionMap.Region> regions = RegionMap.collect(regionsJfr);
+            if (split.length > 1) {
+              try {
+                Files.writeString(Path.of(split[1]), RegionMap.format(regions));
+                out.print(RegionMap.summary(regions));
+              } catch (IOException ioe) {
+                out.println("Can't write region map to " + split[1] + " (" + ioe + ")");
+              }
+            } else {
+              out.print(RegionMap.format(regions));
+            }
+            out.flush();
+          } else if (line.startsWith("PAGEMAP")) {
+            // Write the virtual to physical page mappings of all processes in the binary
+            // format of the UffdVisualizer to the given file, e.g. "PAGEMAP /tmp/mem_mapping.bin"
+            String[] split = line.split("\\h");
+            if (split.length > 1) {
+              try {
+                out.println(PageMapCollector.collect(Path.of(split[1]), null));
+              } catch (IOException ioe) {
+                out.println("Can't write page mappings to " + split[1] + " (" + ioe + ")");
+              }
+            } else {
+              out.println("Usage: PAGEMAP <file>");
+            }
+          } else if ("CLEAR_REFS".equals(line)) {
+            clearRefs(out);
+          } else if ("DIRTY".equals(line)) {
+            dirty(out);
+          } else if (line.startsWith("WORKINGSET")) {
+            // Print the working set recorded after the last RESUME or export it
+            // as a page list for pretouchPageList, e.g. "WORKINGSET /tmp/pages.txt"
+            String[] split = line.split("\\h");
+            if (split.length > 1) {
+              try {
+                out.println("Exported " + WorkingSet.export(Path.of(split[1])) + " pages to " + split[1]);
+              } catch (IOException ioe) {
+                out.println("Can't export working set to " + split[1] + " (" + ioe + ")");
+              }
+            } else {
+              out.print(WorkingSet.report());
+              out.flush();
+            }
+          } else if ("PRETOUCH".equals(line)) {
+            out.println(PageToucher.status());
+          } else if ("WARMUP".equals(line)) {
+            out.println(Warmup.status());
+          } else if ("PREPARE".equals(line)) {
+            out.println(Preparation.start(prepareSteps) ? "Preparation started" : "Preparation already running");
+          } else if (line.startsWith("SHRINK")) {
+            // Run the given (or the configured) shrink steps, e.g. "SHRINK gc,trim_native"
+            String[] split = line.split("\\h");
+            shrink(split.length > 1 ? split[1] : shrinkSteps, out);
           } else if (line.startsWith("JCMD")) {
             String[] split = line.split("\\h");
             if (split.length > 1) {
@@ -108,19 +359,54 @@ public class SuspendResumeAgent implements Runnable {
       } catch (IOException ioe) {
         System.err.println("Can't accept/read/write on port " + port);
         ioe.printStackTrace();
+      } catch (RuntimeException re) {
+        // Don't let a failing command kill the agent thread
+        System.err.println("Error while executing command on port " + port);
+        re.printStackTrace();
       }
     }
   }
 
+  private static List<String> hotMethods() {
+    if (hotMethods == null) {
+      return List.of();
+    }
+    try {
+      return CompilerQuiescence.readHotMethods(hotMethods);
+    } catch (IOException ioe) {
+      System.err.println("Can't read hot methods from " + hotMethods);
+      return List.of();
+    }
+  }
+
+  private static void clearRefs(PrintWriter out) {
+    try {
+      out.println("Cleared soft-dirty bits in " + SoftDirty.clear() / 1_000 + "us");
+    } catch (IOException ioe) {
+      out.println("Can't clear soft-dirty bits (" + ioe + ")");
+    }
+  }
+
+  private static void dirty(PrintWriter out) {
+    try {
+      out.print(SoftDirty.dirty());
+      out.flush();
+    } catch (IOException ioe) {
+      out.println("Can't read soft-dirty bits (" + ioe + ")");
+    }
+  }
+
+  private static void shrink(String steps, PrintWriter out) {
+    for (ShrinkPipeline.Result r : ShrinkPipeline.run(steps)) {
+      out.println(r);
+    }
+  }
+
   private static void executeJcmd(String cmd, String[] args, PrintWriter out) {
     System.out.println("Executing: jcmd " + cmd + " " + Arrays.toString(args));
-    if (mbserver != null && diagCmd != null) {
+    if (DiagnosticCommand.isAvailable()) {
       try {
-        String res = (String)mbserver
-          .invoke(diagCmd , transform(cmd),
-                  new Object[] { args },
-                  new String[] { String[].class.getName()} );
-        out.println(res);
+        out.println(DiagnosticCommand.execute(cmd, args));
       } catch (Exception e) {
         out.println("Error when executing JCMD " + cmd);
         e.printStackTrace(out);
@@ -128,39 +414,36 @@ public class SuspendResumeAgent implements Runnable {
     }
   }
 
-  /*
-   * Verbose copy from com.sun.management.internal.DiagnosticCommandImpl::transform
-   */
-  private static String transform(String name) {
-    StringBuilder sb = new StringBuilder();
-    boolean toLower = true;
-    boolean toUpper = false;
-    for (int i = 0; i < name.length(); i++) {
-      char c = name.charAt(i);
-      if (c == '.' || c == '_') {
-        toLower = false;
-        toUpper = true;
-      } else {
-        if (toUpper) {
-          toUpper = false;
-          sb.append(Character.toUpperCase(c));
-        } else if(toLower) {
-          sb.append(Character.toLowerCase(c));
-        } else {
-          sb.append(c);
-        }
+  private static void start(boolean daemon) {
+    if (resourcePolicies != null) {
+      try {
+        Set<Integer> excludedPorts = metricsPort > 0 ? Set.of(port, metricsPort) : Set.of(port);
+        policyEngine = new ResourcePolicyEngine(ResourcePolicy.parse(Path.of(resourcePolicies)), excludedPorts,
+                                                reconnectThreads, reconnectTimeout);
+        Core.getContext(Core.Priority.JDK).register(policyEngine);
+      } catch (IOException ioe) {
+        System.err.println("Can't read resource policies from " + resourcePolicies);
+        ioe.printStackTrace();
       }
     }
-    return sb.toString();
-  }
-
-  private static void start(boolean daemon) {
+    if (metricsPort > 0) {
+      try {
+        MetricsServer.start(metricsHost, metricsPort);
+      } catch (IOException ioe) {
+        System.err.println("Can't start metrics server on " + metricsHost + ":" + metricsPort);
+        ioe.printStackTrace();
+      }
+    }
+    if (prepareInterval > 0) {
+      Preparation.startPeriodic(prepareSteps, prepareInterval);
+    }
     Thread t = new Thread(new SuspendResumeAgent(), "SuspendResumeAgent");
     t.setDaemon(daemon);
     t.start();
   }
 
   public static void premain(String agentArgs, Instrumentation inst) {
+    instrumentation = inst;
     start(true);
   }
 
@@ -0,0 +1,54 @@
+package io.simonis.cds;
+
+import io.simonis.utils.DiagnosticCommand;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Creates a dynamic AppCDS archive of the currently loaded classes with
+ * {@code jcmd VM.cds dynamic_dump}. This requires that the VM was started with
+ * {@code -XX:+RecordDynamicDumpInfo} and a JDK 17 VM can only dump once.
+ *
+ * <p>The archive is first written to a temporary file and then atomically moved
+ * to its final location, so an archive which is currently mapped by other VMs
+ * is never overwritten in place.
+ */
+public class DynamicArchive {
+
+    /**
+     * @param file the archive file or {@code null} if the file name is invalid
+     * @param size the size of the archive in bytes
+     * @param nanos the time the dump took
+     * @param error the reason why the dump failed or {@code null}
+     */
+    public record Result(Path file, long size, long nanos, String error) {
+        @Override
+        public String toString() {
+            if (error != null) {
+                return "CDS dump" + (file == null ? "" : " to " + file) + " failed: " + error;
+            }
+            return "CDS dump to " + file + ": " + size / 1024 + "kb in " + nanos / 1_000_000 + "ms";
+        }
+    }
+
+    public static Result dump(String file) {
+        long start = System.nanoTime();
+        Path path = null;
+        try {
+            path = Path.of(file).toAbsolutePath();
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.deleteIfExists(tmp);
+            String output = DiagnosticCommand.execute("VM.cds", "dynamic_dump", tmp.toString());
+            if (!Files.exists(tmp)) {
+                // The command reports errors (e.g. a missing -XX:+RecordDynamicDumpInfo) only in its output
+                return new Result(path, 0, System.nanoTime() - start, output.replace("Dynamic dump:", "").strip());
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Result(path, Files.size(path), System.nanoTime() - start, null);
+        } catch (Exception e) {
+            return new Result(path, 0, System.nanoTime() - start, e.toString());
+        }
+    }
+}
@@ -24,16 +24,87 @@
 
 package io.simonis.crac;
 
+import io.simonis.crac.impl.BlockingOrderedContext;
 import io.simonis.crac.impl.FirecrackerContext;
+import io.simonis.crac.impl.LazyRestorer;
+import io.simonis.crac.impl.PriorityContext;
 import io.simonis.utils.Logger;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * The coordination service.
  */
 public class Core {
-    static private final Context<Resource> firecrackerContext = new FirecrackerContext();
+
+    /**
+     * Priorities of the {@code Context}s nested under the root {@code Context}.
+     * Contexts with a lower priority are notified last on checkpoint and first
+     * on restore. The global {@code Context} has priority {@code APPLICATION}.
+     */
+    public enum Priority {
+        /** Low-level JDK resources like file descriptors or the network stack. */
+        JDK(new BlockingOrderedContext<>()),
+        /** Resources of frameworks and libraries the application depends on. */
+        FRAMEWORK(new BlockingOrderedContext<>()),
+        /** Application resources. This is the global {@code Context}. */
+        APPLICATION(new FirecrackerContext()),
+        /** Background services which are not on the latency-critical path. */
+        BACKGROUND(new BlockingOrderedContext<>());
+
+        private final Context<Resource> context;
+
+        Priority(Context<Resource> context) {
+            this.context = context;
+        }
+
+        /**
+         * Gets the {@code Context} for this priority.
+         *
+         * @return the {@code Context} for this priority
+         */
+        public Context<Resource> getContext() {
+            return context;
+        }
+    }
+
+    /**
+     * The root {@code Context} which bumps the restore epoch once all the
+     * sub-contexts have been notified about a restore.
+     */
+    private static final class RootContext extends PriorityContext<Priority, Resource> {
+        @Override
+        public void afterRestore(Context<? extends Resource> context) throws RestoreException {
+            try {
+                super.afterRestore(context);
+            } finally {
+                // A failed notification doesn't undo the restore
+                RESTORE_EPOCH.getAndAdd(1L);
+            }
+        }
+    }
+
+    static private final VarHandle RESTORE_EPOCH;
+    static private volatile long restoreEpoch;
+    static {
+        try {
+            RESTORE_EPOCH = MethodHandles.lookup().findStaticVarHandle(Core.class, "restoreEpoch", long.class);
+        } catch (ReflectiveOperationException roe) {
+            throw new ExceptionInInitializerError(roe);
+        }
+    }
+
+    static private final PriorityContext<Priority, Resource> rootContext = new RootContext();
+    static private final Context<Resource> firecrackerContext = Priority.APPLICATION.getContext();
     static private final Logger log = Logger.getLogger(Core.class);
 
+    static {
+        for (Priority p : Priority.values()) {
+            rootContext.createSubContext(p, p.getContext());
+        }
+    }
+
     /**
      * Gets the global {@code Context} for checkpoint/restore notifications.
      *
@@ -43,6 +114,44 @@ public class Core {
         return firecrackerContext;
     }
 
+    /**
+     * Gets the {@code Context} for checkpoint/restore notifications with the given priority.
+     *
+     * @param priority the priority of the requested {@code Context}
+     * @return the {@code Context} for {@code priority}
+     */
+    public static Context<Resource> getContext(Priority priority) {
+        return priority.getContext();
+    }
+
+    /**
+     * Gets the root {@code Context} which notifies the {@code Context}s of all
+     * priorities. This is the {@code Context} which has to be notified by the
+     * checkpoint/restore mechanism. {@code Resource}s can't be registered with it.
+     *
+     * @return the root {@code Context}
+     */
+    public static Context<Resource> getRootContext() {
+        return rootContext;
+    }
+
+    /**
+     * Gets the restore epoch, i.e. the number of restores after which all {@code Resource}s have been
+     * notified. It can be used by hot code which has to detect a restore without registering a
+     * {@code Resource}, because it only costs a volatile read and doesn't allocate:
+     * <pre>
+     * if (epoch != Core.getRestoreEpoch()) {
+     *     epoch = Core.getRestoreEpoch();
+     *     // refresh cached timestamps, connections, tokens...
+     * }
+     * </pre>
+     *
+     * @return the current restore epoch, starting at 0
+     */
+    public static long getRestoreEpoch() {
+        return restoreEpoch;
+    }
+
     /**
      * Requests checkpoint and returns upon a successful restore.
      * May throw an exception if the checkpoint or restore are unsuccessful.
@@ -58,21 +167,23 @@ public class Core {
     public static void checkpointRestore() throws
             CheckpointException, RestoreException {
         log.info("Starting checkpoint");
-        log.debug("  from:", new Exception("Starting checkpoint"));
+        log.debug("  from:", () -> new Exception("Starting checkpoint"));
         try {
-            firecrackerContext.beforeCheckpoint(null);
+            rootContext.beforeCheckpoint(null);
         } catch (CheckpointException ce) {
             log.error("Error when calling beforeCheckpoint()");
             return;
         }
         log.info("Checkpointed");
         log.info("Starting restore");
-        log.debug("  from:", new Exception("Starting restore"));
+        log.debug("  from:", () -> new Exception("Starting restore"));
         try {
-            firecrackerContext.afterRestore(null);
+            rootContext.afterRestore(null);
         } catch (RestoreException re) {
             log.error("Error when calling afterRestore()");
             return;
+        } finally {
+            LazyRestorer.start();
         }
         log.info("Checkpoint restored");
     }
@@ -0,0 +1,142 @@
+package io.simonis.crac;
+
+import io.simonis.crac.impl.LazyRestorer;
+
+/**
+ * A {@code Resource} whose restore can be deferred.
+ *
+ * <p>Instead of reinitializing in {@code afterRestore}, a {@code LazyResource}
+ * is only marked as pending on restore. It is reinitialized either on first
+ * access (i.e. when {@link #ensureRestored()} is called) or, in
+ * {@link Mode#BACKGROUND} mode, by a background thread once the restore
+ * notification has completed, whatever happens first. Between the checkpoint and
+ * the restore notification (i.e. while the agent still prepares the snapshot),
+ * {@code ensureRestored()} blocks, so the resource can't be reinitialized before
+ * the snapshot is taken.
+ *
+ * <p>Subclasses implement {@link #checkpoint()} and {@link #restore()} instead of
+ * {@code beforeCheckpoint} and {@code afterRestore} and have to call
+ * {@code ensureRestored()} before every access to the state managed by them.
+ */
+public abstract class LazyResource implements Resource {
+
+    /**
+     * Defines when a pending restore is executed.
+     */
+    public enum Mode {
+        /** Restore on first call to {@code ensureRestored()}. */
+        ON_FIRST_ACCESS,
+        /** Restore on first access or in the background after the restore notification, whatever happens first. */
+        BACKGROUND
+    }
+
+    // The resource is usable
+    private static final int RESTORED = 0;
+    // checkpoint() was called but the restore notification didn't arrive yet
+    private static final int CHECKPOINTED = 1;
+    // The restore notification arrived but restore() wasn't called yet
+    private static final int PENDING = 2;
+
+    private final Mode mode;
+    // Written under the lock but volatile, so ensureRestored() can check it without locking
+    private volatile int state = RESTORED;
+
+    /**
+     * Creates a {@code LazyResource} in {@code BACKGROUND} mode.
+     */
+    protected LazyResource() {
+        this(Mode.BACKGROUND);
+    }
+
+    /**
+     * Creates a {@code LazyResource} with the given restore mode.
+     *
+     * @param mode the restore mode
+     */
+    protected LazyResource(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Prepares the resource for a checkpoint.
+     * Not called if the resource wasn't restored since the last checkpoint.
+     *
+     * @throws Exception if the method have failed
+     */
+    protected abstract void checkpoint() throws Exception;
+
+    /**
+     * Reinitializes the resource after a restore.
+     * Called at most once per restore, either on first access or in the background.
+     *
+     * @throws Exception if the method have failed
+     */
+    protected abstract void restore() throws Exception;
+
+    @Override
+    public final synchronized void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+        if (state == RESTORED) {
+            checkpoint();
+        }
+        state = CHECKPOINTED;
+    }
+
+    @Override
+    public final void afterRestore(Context<? extends Resource> context) throws Exception {
+        synchronized (this) {
+            if (state == CHECKPOINTED) {
+                state = PENDING;
+                notifyAll();
+            }
+        }
+        if (mode == Mode.BACKGROUND) {
+            LazyRestorer.submit(this);
+        }
+    }
+
+    /**
+     * Restores the resource if a restore is still pending. Must be called before
+     * every access to the state managed by this resource. If the restore is
+     * currently executed by another thread, waits until it has finished. If the
+     * resource was checkpointed but the restore notification didn't arrive yet,
+     * waits for the restore notification. If the restore fails, it will be retried
+     * on the next call.
+     *
+     * @throws RestoreException if the restore has failed or the thread was interrupted while waiting
+     */
+    public final void ensureRestored() throws RestoreException {
+        if (state == RESTORED) {
+            // Fast path, no restore pending
+            return;
+        }
+        synchronized (this) {
+            while (state == CHECKPOINTED) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RestoreException("Interrupted while waiting for the restore of " + this);
+                }
+            }
+            if (state == PENDING) {
+                try {
+                    restore();
+                    state = RESTORED;
+                } catch (Exception e) {
+                    RestoreException re = new RestoreException("Lazy restore of " + this + " failed");
+                    re.addSuppressed(e);
+                    throw re;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if the resource has been checkpointed but not restored yet.
+     *
+     * @return {@code true} if a restore is pending
+     */
+    public final boolean isRestorePending() {
+        return state != RESTORED;
+    }
+}
@@ -0,0 +1,82 @@
+package io.simonis.crac.impl;
+
+import io.simonis.crac.CheckpointException;
+import io.simonis.crac.Context;
+import io.simonis.crac.Resource;
+import io.simonis.crac.RestoreException;
+import io.simonis.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Common base class for the {@code Context} implementations of this agent.
+ * Subclasses only define the order in which their {@code Resource}s are
+ * notified. The notification itself and the collection of exceptions
+ * follows the properties of the global {@code Context}.
+ */
+public abstract class AbstractContextImpl<R extends Resource> extends Context<R> {
+
+    protected final Logger log = Logger.getLogger(getClass());
+
+    /**
+     * Returns a snapshot of the {@code Resource}s in the order in which they
+     * have to be notified about a checkpoint.
+     */
+    protected abstract List<? extends Resource> checkpointOrder();
+
+    /**
+     * Returns a snapshot of the {@code Resource}s in the order in which they
+     * have to be notified about a restore.
+     */
+    protected abstract List<? extends Resource> restoreOrder();
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) throws CheckpointException {
+        ArrayList<Throwable> exceptions = new ArrayList<>();
+        for (Resource r : checkpointOrder()) {
+            try {
+                log.info("Calling beforeCheckpoint() for resource {}", r);
+                log.debug("  from:", () -> new Exception("beforeCheckpoint()"));
+                r.beforeCheckpoint(this);
+            } catch (CheckpointException ce) {
+                Collections.addAll(exceptions, ce.getSuppressed());
+            } catch (Exception e) {
+                exceptions.add(e);
+            }
+        }
+        if (!exceptions.isEmpty()) {
+            CheckpointException ce = new CheckpointException();
+            for (Throwable t: exceptions) {
+                ce.addSuppressed(t);
+            }
+            log.info("Errors while executing beforeCheckpoint():", ce);
+            throw ce;
+        }
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) throws RestoreException {
+        ArrayList<Throwable> exceptions = new ArrayList<>();
+        for (Resource r : restoreOrder()) {
+            try {
+                log.info("Calling afterRestore() for resource {}", r);
+                log.debug("  from:", () -> new Exception("afterRestore()"));
+                r.afterRestore(this);
+            } catch (RestoreException re) {
+                Collections.addAll(exceptions, re.getSuppressed());
+            } catch (Exception e) {
+                exceptions.add(e);
+            }
+        }
+        if (!exceptions.isEmpty()) {
+            RestoreException re = new RestoreException();
+            for (Throwable t: exceptions) {
+                re.addSuppressed(t);
+            }
+            log.info("Errors while executing afterRestore():", re);
+            throw re;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package io.simonis.crac.impl;
+
+import io.simonis.crac.CheckpointException;
+import io.simonis.crac.Context;
+import io.simonis.crac.Resource;
+import io.simonis.crac.RestoreException;
+
+/**
+ * An {@link OrderedContext} which doesn't accept new {@code Resource}s while
+ * it is notifying its {@code Resource}s about a checkpoint or restore.
+ * Registrations from other threads block until the notification has finished.
+ * Registrations from within a notification (i.e. from the notifying thread)
+ * would deadlock and throw an {@code IllegalStateException} instead.
+ *
+ * <p>Outside of notifications, registration is lock-free. A registration which
+ * races with the start of a notification will only be notified the next time.
+ */
+public class BlockingOrderedContext<R extends Resource> extends OrderedContext<R> {
+
+    // The thread which currently notifies the resources of this context (only written while holding 'this')
+    private volatile Thread notifying;
+
+    @Override
+    public void register(R resource) {
+        Thread n = notifying;
+        if (n == Thread.currentThread()) {
+            throw new IllegalStateException("Can't register resource " + resource + " while notifying " + this);
+        }
+        if (n != null) {
+            awaitNotification();
+        }
+        super.register(resource);
+    }
+
+    private synchronized void awaitNotification() {
+        boolean interrupted = false;
+        while (notifying != null) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) throws CheckpointException {
+        startNotification();
+        try {
+            super.beforeCheckpoint(context);
+        } finally {
+            endNotification();
+        }
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) throws RestoreException {
+        startNotification();
+        try {
+            super.afterRestore(context);
+        } finally {
+            endNotification();
+        }
+    }
+
+    private synchronized void startNotification() {
+        awaitNotification();
+        notifying = Thread.currentThread();
+    }
+
+    private synchronized void endNotification() {
+        notifying = null;
+        notifyAll();
+    }
+}
@@ -0,0 +1,53 @@
+package io.simonis.crac.impl;
+
+import io.simonis.crac.LazyResource;
+import io.simonis.crac.RestoreException;
+import io.simonis.utils.Logger;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Restores {@code LazyResource}s in {@code BACKGROUND} mode. They are queued
+ * during the restore notification and restored by a low priority background
+ * thread once {@link #start()} is called after the restore has completed.
+ */
+public class LazyRestorer implements Runnable {
+
+    private static final Logger log = Logger.getLogger(LazyRestorer.class);
+
+    private static final ConcurrentLinkedQueue<LazyResource> pending = new ConcurrentLinkedQueue<>();
+
+    public static void submit(LazyResource resource) {
+        pending.add(resource);
+    }
+
+    /**
+     * Starts a background thread which restores all the currently queued resources.
+     */
+    public static void start() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Thread t = new Thread(new LazyRestorer(), "LazyRestorer");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        int count = 0;
+        LazyResource r;
+        while ((r = pending.poll()) != null) {
+            try {
+                r.ensureRestored();
+                count++;
+            } catch (RestoreException re) {
+                // The restore will be retried on first access
+                log.warn("Background restore of {} failed:", r, re);
+            }
+        }
+        log.info("Finished background restore of {} lazy resources in {}ms", count, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,91 @@
+package io.simonis.crac.impl;
+
+import io.simonis.crac.Resource;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@code Context} with the properties of the global {@code Context}.
+ * It keeps weak references to its {@code Resource}s and notifies them
+ * in reverse order of registration about a checkpoint and in order of
+ * registration about a restore. {@code Resource}s registered during a
+ * notification will only be notified by the next checkpoint or restore.
+ *
+ * <p>Registration is lock-free. Every resource gets a unique, increasing
+ * sequence number which is used as key into a concurrent skip list. A
+ * notification only considers the resources registered before it started.
+ * References to collected resources are enqueued into a reference queue
+ * and pruned from the registry on the next registration or notification.
+ */
+public class OrderedContext<R extends Resource> extends AbstractContextImpl<R> {
+
+    private static final class ResourceRef<R> extends WeakReference<R> {
+        // The registration sequence number of the referenced resource
+        final long seq;
+
+        ResourceRef(R resource, long seq, ReferenceQueue<? super R> queue) {
+            super(resource, queue);
+            this.seq = seq;
+        }
+    }
+
+    private final ConcurrentSkipListMap<Long, ResourceRef<R>> resources = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ReferenceQueue<R> cleared = new ReferenceQueue<>();
+
+    @Override
+    public void register(R resource) {
+        Objects.requireNonNull(resource);
+        log.info("Registering resource {}", resource);
+        log.debug("  from:", () -> new Exception("Registering resource"));
+        prune();
+        long seq = sequence.incrementAndGet();
+        resources.put(seq, new ResourceRef<>(resource, seq, cleared));
+    }
+
+    /**
+     * Returns the number of registered resources including the ones which
+     * have been collected but not pruned yet.
+     */
+    public int size() {
+        return resources.size();
+    }
+
+    private void prune() {
+        Reference<? extends R> ref;
+        while ((ref = cleared.poll()) != null) {
+            resources.remove(((ResourceRef<?>)ref).seq);
+        }
+    }
+
+    private List<R> snapshot(boolean reverse) {
+        prune();
+        var registered = resources.headMap(sequence.get(), true);
+        ArrayList<R> list = new ArrayList<>(registered.size());
+        for (ResourceRef<R> ref : (reverse ? registered.descendingMap() : registered).values()) {
+            R r = ref.get();
+            if (r != null) {
+                list.add(r);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    protected List<R> checkpointOrder() {
+        return snapshot(true);
+    }
+
+    @Override
+    protected List<R> restoreOrder() {
+        return snapshot(false);
+    }
+}
@@ -0,0 +1,59 @@
+package io.simonis.crac.impl;
+
+import io.simonis.crac.Context;
+import io.simonis.crac.Resource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * A {@code Context} which consists of sub-contexts with distinct priorities.
+ * On checkpoint the sub-contexts are notified from the highest to the lowest
+ * priority, on restore from the lowest to the highest priority. I.e. low-level
+ * resources (which have a low priority) are checkpointed last and restored first.
+ *
+ * <p>{@code Resource}s can't be registered directly with a {@code PriorityContext}
+ * but only with one of its sub-contexts.
+ */
+public class PriorityContext<P extends Comparable<? super P>, R extends Resource> extends AbstractContextImpl<R> {
+
+    private final TreeMap<P, Context<R>> contexts = new TreeMap<>();
+
+    /**
+     * Adds {@code context} as sub-context with the given {@code priority}.
+     *
+     * @throws IllegalStateException if there already is a sub-context with the same priority
+     */
+    public synchronized void createSubContext(P priority, Context<R> context) {
+        Objects.requireNonNull(priority);
+        Objects.requireNonNull(context);
+        if (contexts.putIfAbsent(priority, context) != null) {
+            throw new IllegalStateException("Sub-context with priority " + priority + " already exists");
+        }
+        log.info("Created sub-context {} with priority {}", context, priority);
+    }
+
+    /**
+     * Returns the sub-context with the given {@code priority} or {@code null} if there is none.
+     */
+    public synchronized Context<R> getSubContext(P priority) {
+        return contexts.get(priority);
+    }
+
+    @Override
+    public void register(R resource) {
+        throw new UnsupportedOperationException("Resources have to be registered with a sub-context of " + this);
+    }
+
+    @Override
+    protected synchronized List<Context<R>> checkpointOrder() {
+        return new ArrayList<>(contexts.descendingMap().values());
+    }
+
+    @Override
+    protected synchronized List<Context<R>> restoreOrder() {
+        return new ArrayList<>(contexts.values());
+    }
+}
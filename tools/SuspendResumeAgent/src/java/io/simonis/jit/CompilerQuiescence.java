@@ -0,0 +1,168 @@
+package io.simonis.jit;
+
+import io.simonis.utils.CompileQueue;
+import io.simonis.utils.Logger;
+import io.simonis.utils.MemoryStats;
+
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lets the JIT compilers finish their work before a checkpoint, so restored
+ * VMs don't start with half-warm code and don't have to redo the compilations.
+ *
+ * <p>Hot methods can be force-compiled before waiting for the compile queues to
+ * drain. There's no public API for this, so it only works if the WhiteBox API is
+ * available (i.e. with {@code -XX:+UnlockDiagnosticVMOptions -XX:+WhiteBoxAPI} and
+ * the WhiteBox classes on the boot class path). Otherwise the methods are skipped.
+ */
+public class CompilerQuiescence {
+
+    private static final Logger log = Logger.getLogger(CompilerQuiescence.class);
+
+    // The highest (i.e. C2) compilation level
+    private static final int COMP_LEVEL_FULL_OPTIMIZATION = 4;
+
+    /**
+     * @param forced the number of methods which were enqueued for compilation
+     * @param queueDepth the number of queued and running compilations when we stopped waiting or -1 if unknown
+     * @param waitedNanos the time spent waiting for the compile queues to drain
+     * @param codeCacheUsed the used code cache in bytes
+     * @param codeCacheMax the maximum size of the code cache in bytes
+     */
+    public record Result(int forced, int queueDepth, long waitedNanos, long codeCacheUsed, long codeCacheMax) {
+        @Override
+        public String toString() {
+            return "JIT: forced " + forced + " methods, compile queue depth " + (queueDepth < 0 ? "unknown" : queueDepth) +
+                " after " + waitedNanos / 1_000_000 + "ms, code cache " + codeCacheUsed / 1024 + "kb of " +
+                codeCacheMax / 1024 + "kb (" + (codeCacheMax > 0 ? 100 * codeCacheUsed / codeCacheMax : 0) + "%)";
+        }
+    }
+
+    /**
+     * Reads a list of methods in the format {@code java.lang.String::hashCode} (one per line).
+     * All overloads of a method are compiled.
+     */
+    public static List<String> readHotMethods(String file) throws IOException {
+        ArrayList<String> methods = new ArrayList<>();
+        for (String line : Files.readAllLines(Path.of(file))) {
+            line = line.strip();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                methods.add(line);
+            }
+        }
+        return methods;
+    }
+
+    // Returns the WhiteBox instance or null if the WhiteBox API isn't available
+    private static Object whiteBox() {
+        for (String name : new String[] { "jdk.test.whitebox.WhiteBox", "sun.hotspot.WhiteBox" }) {
+            try {
+                return Class.forName(name).getMethod("getWhiteBox").invoke(null);
+            } catch (ReflectiveOperationException | LinkageError e) {}
+        }
+        return null;
+    }
+
+    // Looks up the (possibly several) classes called 'name' among the loaded classes without
+    // initializing them. Without Instrumentation, only the system class loader is searched.
+    private static List<Class<?>> loadedClasses(String name, Instrumentation inst) {
+        if (inst == null) {
+            try {
+                return List.of(Class.forName(name, false, ClassLoader.getSystemClassLoader()));
+            } catch (ClassNotFoundException | LinkageError e) {
+                return List.of();
+            }
+        }
+        ArrayList<Class<?>> classes = new ArrayList<>();
+        for (Class<?> c : inst.getAllLoadedClasses()) {
+            if (c.getName().equals(name)) {
+                classes.add(c);
+            }
+        }
+        return classes;
+    }
+
+    private static int forceCompile(List<String> hotMethods, Instrumentation inst) {
+        if (hotMethods.isEmpty()) {
+            return 0;
+        }
+        Object wb = whiteBox();
+        if (wb == null) {
+            log.warn("WhiteBox API not available, can't force-compile {} methods", hotMethods.size());
+            return 0;
+        }
+        Method enqueue;
+        try {
+            enqueue = wb.getClass().getMethod("enqueueMethodForCompilation", Executable.class, int.class);
+        } catch (NoSuchMethodException nsme) {
+            return 0;
+        }
+        int forced = 0;
+        for (String hot : hotMethods) {
+            int sep = hot.indexOf("::");
+            if (sep < 0) {
+                log.warn("Invalid hot method {}", hot);
+                continue;
+            }
+            String name = hot.substring(sep + 2);
+            List<Class<?>> classes = loadedClasses(hot.substring(0, sep), inst);
+            if (classes.isEmpty()) {
+                log.warn("Can't compile {}: class not loaded", hot);
+                continue;
+            }
+            try {
+                ArrayList<Executable> executables = new ArrayList<>();
+                for (Class<?> c : classes) {
+                    if ("<init>".equals(name)) {
+                        executables.addAll(List.of(c.getDeclaredConstructors()));
+                    } else {
+                        for (Method m : c.getDeclaredMethods()) {
+                            if (m.getName().equals(name)) {
+                                executables.add(m);
+                            }
+                        }
+                    }
+                }
+                for (Executable e : executables) {
+                    if ((Boolean)enqueue.invoke(wb, e, COMP_LEVEL_FULL_OPTIMIZATION)) {
+                        forced++;
+                    }
+                }
+            } catch (ReflectiveOperationException | LinkageError e) {
+                log.warn("Can't compile {}: {}", hot, e);
+            }
+        }
+        return forced;
+    }
+
+    /**
+     * Force-compiles {@code hotMethods} and waits up to {@code timeoutMillis} for all the compile queues to drain.
+     * Hot methods are only compiled if their class is already loaded. Classes are looked up in all class loaders
+     * with {@code inst} (e.g. for Spring Boot fat jars) or only in the system class loader if {@code inst} is null.
+     */
+    public static Result quiesce(List<String> hotMethods, long timeoutMillis, Instrumentation inst) {
+        int forced = forceCompile(hotMethods, inst);
+        long start = System.nanoTime();
+        long deadline = start + timeoutMillis * 1_000_000;
+        int depth;
+        while ((depth = CompileQueue.depth()) > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long waited = System.nanoTime() - start;
+        MemoryUsage codeCache = MemoryStats.codeCache();
+        return new Result(forced, depth, waited, codeCache.getUsed(), Math.max(0, codeCache.getMax()));
+    }
+}
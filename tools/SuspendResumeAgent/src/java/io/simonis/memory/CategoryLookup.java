@@ -0,0 +1,41 @@
+package io.simonis.memory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Attributes addresses to the NMT category of their committed region or, outside of
+ * the NMT regions, to their {@link Mapping} (e.g. "Other: /usr/lib/libc.so").
+ */
+class CategoryLookup {
+
+    private final TreeMap<Long, MemoryRegions.Region> regions = new TreeMap<>();
+    private final TreeMap<Long, Mapping> mappings = new TreeMap<>();
+
+    CategoryLookup(List<Mapping> maps) {
+        for (MemoryRegions.Region r : MemoryRegions.fromNMT()) {
+            regions.put(r.start(), r);
+        }
+        for (Mapping m : maps) {
+            mappings.put(m.start(), m);
+        }
+    }
+
+    /**
+     * Returns the NMT region which contains {@code address} or {@code null}.
+     */
+    MemoryRegions.Region region(long address) {
+        Map.Entry<Long, MemoryRegions.Region> r = regions.floorEntry(address);
+        return (r != null && address < r.getValue().end()) ? r.getValue() : null;
+    }
+
+    String category(long address) {
+        MemoryRegions.Region r = region(address);
+        if (r != null) {
+            return r.category();
+        }
+        Map.Entry<Long, Mapping> m = mappings.floorEntry(address);
+        return (m != null && address < m.getValue().end()) ? m.getValue().category() : "Other: [unmapped]";
+    }
+}
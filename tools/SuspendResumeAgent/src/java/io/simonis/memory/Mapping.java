@@ -0,0 +1,50 @@
+package io.simonis.memory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A virtual memory mapping {@code [start, end)} from {@code /proc/<pid>/maps}.
+ *
+ * @param perms the permissions, e.g. "rw-p"
+ * @param name the path or pseudo path (e.g. "[heap]") of the mapping, empty for anonymous mappings
+ */
+record Mapping(long start, long end, String perms, String name) {
+
+    boolean readable() {
+        return perms.charAt(0) == 'r';
+    }
+
+    boolean writable() {
+        return perms.charAt(1) == 'w';
+    }
+
+    /**
+     * Returns the category of addresses in this mapping which aren't in an NMT region.
+     */
+    String category() {
+        return "Other: " + (name.isEmpty() ? "[anon]" : name);
+    }
+
+    /**
+     * Parses a line like {@code "7f2c4c021000-7f2c50000000 rw-p 00000000 00:00 0       /usr/lib/libc.so"}.
+     */
+    static Mapping parse(String line) {
+        String[] fields = line.split(" +", 6);
+        int dash = fields[0].indexOf('-');
+        return new Mapping(Long.parseUnsignedLong(fields[0], 0, dash, 16),
+                           Long.parseUnsignedLong(fields[0], dash + 1, fields[0].length(), 16),
+                           fields[1], fields.length == 6 ? fields[5].strip() : "");
+    }
+
+    static List<Mapping> read(Path maps) throws IOException {
+        ArrayList<Mapping> mappings = new ArrayList<>();
+        for (String line : Files.readAllLines(maps)) {
+            mappings.add(parse(line));
+        }
+        return mappings;
+    }
+}
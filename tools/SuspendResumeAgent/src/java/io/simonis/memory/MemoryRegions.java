@@ -0,0 +1,111 @@
+package io.simonis.memory;
+
+import io.simonis.utils.DiagnosticCommand;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Committed virtual memory regions of the current VM attributed to Native Memory
+ * Tracking (NMT) categories like "Java Heap", "Code", "Metaspace" or "Class".
+ *
+ * <p>The regions are taken from the virtual memory map of {@code jcmd VM.native_memory detail}
+ * if the VM runs with {@code -XX:NativeMemoryTracking=detail}. Otherwise they are taken from
+ * the readable anonymous mappings in {@code /proc/self/maps} where executable mappings are
+ * attributed to "Code" and all the others to "Anonymous".
+ */
+public class MemoryRegions {
+
+    /**
+     * A committed memory region {@code [start, end)}.
+     */
+    public record Region(String category, long start, long end) {
+        public long size() {
+            return end - start;
+        }
+    }
+
+    // E.g. "[0x00000000a2000000 - 0x0000000100000000] reserved 1540096KB for Java Heap from"
+    // followed by "\t[0x00000000a2000000 - 0x00000000a3f50000] committed 32064KB from"
+    private static final Pattern NMT_REGION = Pattern.compile(
+        "\\s*\\[0x(\\p{XDigit}+) - 0x(\\p{XDigit}+)\\] (reserved and committed|reserved|committed) \\d+KB(?: for (.+?))?(?: from)?\\s*");
+
+    /**
+     * Returns the committed regions from NMT or from {@code /proc/self/maps} if NMT detail tracking is not enabled.
+     */
+    public static List<Region> committed() {
+        List<Region> regions = fromNMT();
+        return regions.isEmpty() ? fromMaps() : regions;
+    }
+
+    /**
+     * Returns the committed regions from the NMT virtual memory map
+     * or an empty list if NMT detail tracking is not enabled.
+     */
+    public static List<Region> fromNMT() {
+        ArrayList<Region> regions = new ArrayList<>();
+        String nmt;
+        try {
+            nmt = DiagnosticCommand.execute("VM.native_memory", "detail");
+        } catch (Exception e) {
+            return regions;
+        }
+        int map = nmt.indexOf("Virtual memory map:");
+        if (map < 0) {
+            return regions;
+        }
+        String category = null;
+        Matcher m = NMT_REGION.matcher("");
+        for (String line : nmt.substring(map).split("\n")) {
+            if (!m.reset(line).matches()) {
+                continue;
+            }
+            long start = Long.parseUnsignedLong(m.group(1), 16);
+            long end = Long.parseUnsignedLong(m.group(2), 16);
+            switch (m.group(3)) {
+                case "reserved" -> category = m.group(4);
+                case "reserved and committed" -> {
+                    category = m.group(4);
+                    regions.add(new Region(category, start, end));
+                }
+                default -> {
+                    if (category != null) {
+                        regions.add(new Region(category, start, end));
+                    }
+                }
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Returns the readable anonymous regions from {@code /proc/self/maps}.
+     */
+    public static List<Region> fromMaps() {
+        ArrayList<Region> regions = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader("/proc/self/maps"))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                // Format is "start-end perms offset dev inode [pathname]"
+                String[] fields = line.split("\\s+", 6);
+                if (fields.length < 5 || fields[1].charAt(0) != 'r') {
+                    continue;
+                }
+                String path = fields.length == 6 ? fields[5] : "";
+                if (!path.isEmpty() && !"[heap]".equals(path)) {
+                    continue;
+                }
+                int dash = fields[0].indexOf('-');
+                long start = Long.parseUnsignedLong(fields[0].substring(0, dash), 16);
+                long end = Long.parseUnsignedLong(fields[0].substring(dash + 1), 16);
+                regions.add(new Region(fields[1].charAt(2) == 'x' ? "Code" : "Anonymous", start, end));
+            }
+        } catch (IOException ioe) {}
+        return regions;
+    }
+}
@@ -0,0 +1,277 @@
+package io.simonis.memory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A replacement for the {@code mem_mapping.sh}/{@code virt2phys} loop which collects the
+ * virtual to physical page mappings of all the processes, the kernel and the page cache
+ * in a single pass and streams them as a compact binary dump the {@code UffdVisualizer}
+ * can load directly.
+ *
+ * <p>{@code /proc/<pid>/pagemap} and {@code /proc/kpageflags} are read with large positional
+ * {@code FileChannel} reads and contiguous physical pages are written as a single run instead
+ * of one text line per page. The dump is a {@code DataOutputStream} with the following records:
+ * <pre>
+ * header: int magic ('FCPM'), int version, int page size
+ * '=' int pid, UTF executable          (pid 0 is the kernel, pid -1 the page cache)
+ * 'v' long start, long end, UTF name   (a virtual mapping of the last process)
+ * 'p' long virtual, long physical, int pages, byte flags
+ *                                      (a run of present pages of the last mapping)
+ * '.'                                  (end of dump)
+ * </pre>
+ * where {@code flags} are {@link #EXCLUSIVE}, {@link #FILE_SHARED} and {@link #SOFT_DIRTY}.
+ * Reading physical addresses requires {@code CAP_SYS_ADMIN}, otherwise they are all zero.
+ *
+ * <p>Can be run standalone in the guest (e.g. {@code java -cp SuspendResumeAgent.jar
+ * io.simonis.memory.PageMapCollector > mem_mapping.bin}) in which case the collector and its
+ * parent process are excluded, just like {@code mem_mapping.sh} does.
+ */
+public class PageMapCollector {
+
+    public static final int MAGIC = 0x4643504d; // 'FCPM'
+    public static final int VERSION = 1;
+    public static final int PAGE_SIZE = 4096;
+
+    public static final byte EXCLUSIVE = 1;
+    public static final byte FILE_SHARED = 2;
+    public static final byte SOFT_DIRTY = 4;
+
+    // pagemap bits, see https://www.kernel.org/doc/html/latest/admin-guide/mm/pagemap.html
+    static final long PM_PFN = (1L << 55) - 1;
+    static final long PM_SOFT_DIRTY = 1L << 55;
+    static final long PM_EXCLUSIVE = 1L << 56;
+    static final long PM_FILE_SHARED = 1L << 61;
+    static final long PM_PRESENT = 1L << 63;
+    // kpageflags bits, see include/uapi/linux/kernel-page-flags.h
+    static final long KPF_ANON = 1L << 12;
+    static final long KPF_MAPPEDTODISK = 1L << 34;
+
+    // 64k entries, i.e. 256mb of virtual or physical memory per read
+    private static final int ENTRIES = 64 * 1024;
+
+    /**
+     * @param runs the number of page runs which were written
+     * @param bytes the size of the dump
+     */
+    public record Result(int processes, int mappings, long pages, long runs, long bytes, long nanos) {
+        @Override
+        public String toString() {
+            return String.format("Collected %d pages (%d runs) in %d mappings of %d processes in %dms (%dkb)",
+                                 pages, runs, mappings, processes, nanos / 1_000_000, bytes / 1024);
+        }
+    }
+
+    private final DataOutputStream out;
+    private final ByteBuffer buffer = newBuffer();
+    private int processes, mappings;
+    private long pages, runs;
+    // The currently open run of pages
+    private long runVirtual, runPhysical, runPages;
+    private byte runFlags;
+
+    private PageMapCollector(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1024 * 1024));
+    }
+
+    private void page(long virtual, long physical, byte flags) throws IOException {
+        pages++;
+        if (runPages > 0 && flags == runFlags &&
+            virtual == runVirtual + runPages * PAGE_SIZE && physical == runPhysical + runPages * PAGE_SIZE) {
+            runPages++;
+            return;
+        }
+        flush();
+        runVirtual = virtual;
+        runPhysical = physical;
+        runPages = 1;
+        runFlags = flags;
+    }
+
+    private void flush() throws IOException {
+        if (runPages > 0) {
+            out.writeByte('p');
+            out.writeLong(runVirtual);
+            out.writeLong(runPhysical);
+            out.writeInt((int)runPages);
+            out.writeByte(runFlags);
+            runs++;
+            runPages = 0;
+        }
+    }
+
+    private void process(int pid, String executable) throws IOException {
+        flush();
+        out.writeByte('=');
+        out.writeInt(pid);
+        out.writeUTF(executable);
+        processes++;
+    }
+
+    private void mapping(long start, long end, String name) throws IOException {
+        flush();
+        out.writeByte('v');
+        out.writeLong(start);
+        out.writeLong(end);
+        out.writeUTF(name);
+        mappings++;
+    }
+
+    /**
+     * Returns a buffer for {@link #scan}.
+     */
+    static ByteBuffer newBuffer() {
+        return ByteBuffer.allocateDirect(ENTRIES * 8).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Reads the 64-bit entries for the pages [start, end) from {@code channel} (e.g. a
+     * {@code pagemap} or {@code kpageflags} file) in chunks of {@link #ENTRIES} into
+     * {@code buffer} and passes them to {@code consumer}.
+     */
+    static void scan(FileChannel channel, ByteBuffer buffer, long start, long end, EntryConsumer consumer) throws IOException {
+        // Addresses in the upper half (e.g. [vsyscall]) are negative
+        long last = Long.divideUnsigned(end, PAGE_SIZE);
+        for (long page = Long.divideUnsigned(start, PAGE_SIZE); page < last; ) {
+            buffer.clear().limit((int)Math.min(ENTRIES, last - page) * 8);
+            int read = channel.read(buffer, page * 8);
+            if (read <= 0) {
+                return;
+            }
+            buffer.flip();
+            for (int i = 0; i < read / 8; i++, page++) {
+                consumer.accept(page * PAGE_SIZE, buffer.getLong(i * 8));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long address, long entry) throws IOException;
+    }
+
+    private void collectProcess(long pid) throws IOException {
+        Path proc = Path.of("/proc", Long.toString(pid));
+        String executable;
+        List<String> maps;
+        FileChannel pagemap;
+        try {
+            // For kernel threads /proc/<pid>/exe is a broken link
+            executable = Files.readSymbolicLink(proc.resolve("exe")).toString();
+            maps = Files.readAllLines(proc.resolve("maps"));
+            pagemap = FileChannel.open(proc.resolve("pagemap"), StandardOpenOption.READ);
+        } catch (IOException ioe) {
+            // The process has exited or we're not allowed to look at it
+            return;
+        }
+        process((int)pid, executable);
+        try (pagemap) {
+            for (String line : maps) {
+                Mapping m = Mapping.parse(line);
+                mapping(m.start(), m.end(), m.name());
+                try {
+                    scan(pagemap, buffer, m.start(), m.end(), (virtual, entry) -> {
+                        if ((entry & PM_PRESENT) != 0) {
+                            byte flags = (byte)(((entry & PM_EXCLUSIVE) != 0 ? EXCLUSIVE : 0) |
+                                                ((entry & PM_FILE_SHARED) != 0 ? FILE_SHARED : 0) |
+                                                ((entry & PM_SOFT_DIRTY) != 0 ? SOFT_DIRTY : 0));
+                            page(virtual, (entry & PM_PFN) * PAGE_SIZE, flags);
+                        }
+                    });
+                } catch (IOException ioe) {
+                    // E.g. [vsyscall] can't be read from pagemap
+                }
+            }
+        }
+    }
+
+    private void collectKernel(FileChannel kpageflags) throws IOException {
+        process(0, "kernel");
+        for (String line : Files.readAllLines(Path.of("/proc/iomem"))) {
+            // E.g. "  01000000-01e01f4f : Kernel code"
+            if (line.startsWith(" ") && line.contains(" Kernel ")) {
+                String[] fields = line.strip().split("[- ]", 4);
+                long start = Long.parseUnsignedLong(fields[0], 16);
+                // The end address in /proc/iomem is inclusive
+                long end = (Long.parseUnsignedLong(fields[1], 16) + PAGE_SIZE) & -PAGE_SIZE;
+                mapping(start, end, fields[3]);
+                // Kernel addresses are physical addresses
+                scan(kpageflags, buffer, start, end, (address, flags) -> page(address, address, (byte)0));
+            }
+        }
+    }
+
+    private void collectPageCache(FileChannel kpageflags) throws IOException {
+        process(-1, "pagecache");
+        long end = ((com.sun.management.OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean())
+            .getTotalMemorySize() & -PAGE_SIZE;
+        mapping(0, end, "/proc/kpageflags");
+        scan(kpageflags, buffer, 0, end, (address, flags) -> {
+            // Anonymous pages overload MAPPEDTODISK (see tools/vm/page-types.c in the kernel sources)
+            if ((flags & KPF_MAPPEDTODISK) != 0 && (flags & KPF_ANON) == 0) {
+                page(address, address, (byte)0);
+            }
+        });
+    }
+
+    /**
+     * Writes the mappings of the given processes (or all user processes if {@code pids} is
+     * {@code null}, except the ones in {@code excluded}), the kernel and the page cache to {@code out}.
+     */
+    public static Result collect(OutputStream out, List<Long> pids, Set<Long> excluded) throws IOException {
+        long start = System.nanoTime();
+        PageMapCollector pmc = new PageMapCollector(out);
+        pmc.out.writeInt(MAGIC);
+        pmc.out.writeInt(VERSION);
+        pmc.out.writeInt(PAGE_SIZE);
+        if (pids == null) {
+            try (Stream<ProcessHandle> all = ProcessHandle.allProcesses()) {
+                pids = all.map(ProcessHandle::pid).sorted().toList();
+            }
+        }
+        for (long pid : pids) {
+            if (!excluded.contains(pid)) {
+                pmc.collectProcess(pid);
+            }
+        }
+        try (FileChannel kpageflags = FileChannel.open(Path.of("/proc/kpageflags"), StandardOpenOption.READ)) {
+            pmc.collectKernel(kpageflags);
+            pmc.collectPageCache(kpageflags);
+        } catch (IOException ioe) {
+            // /proc/kpageflags and /proc/iomem are only readable by root
+        }
+        pmc.flush();
+        pmc.out.writeByte('.');
+        pmc.out.flush();
+        return new Result(pmc.processes, pmc.mappings, pmc.pages, pmc.runs, pmc.out.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Writes the dump to the given file.
+     */
+    public static Result collect(Path file, List<Long> pids) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            return collect(out, pids, Set.of());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        ProcessHandle self = ProcessHandle.current();
+        // Exclude ourselves and our parent process (usually a newly spawned sshd process)
+        Set<Long> excluded = Set.of(self.pid(), self.parent().map(ProcessHandle::pid).orElse(self.pid()));
+        Result result = collect(System.out, null, excluded);
+        System.err.println(result);
+    }
+}
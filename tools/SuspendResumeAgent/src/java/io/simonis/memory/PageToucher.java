@@ -0,0 +1,173 @@
+package io.simonis.memory;
+
+import io.simonis.utils.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-touches the committed memory of the VM with several threads right after a
+ * restore so the page faults (which are served by the userfaultfd handler on the
+ * host) are absorbed in parallel instead of one by one by the request threads.
+ *
+ * <p>Memory is read through {@code /proc/self/mem}, so regions which get unmapped
+ * concurrently (e.g. by a heap shrink) just lead to a read error instead of a crash.
+ * The regions are touched in chunks in the order of the configured NMT categories,
+ * categories which are not listed are not touched. Optionally, a list of pages
+ * (one hexadecimal address per line) is touched first.
+ */
+public class PageToucher {
+
+    private static final Logger log = Logger.getLogger(PageToucher.class);
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * The outcome of a pre-touch run.
+     *
+     * @param nanos the time it took to touch all the pages
+     * @param bytes the touched bytes per category
+     * @param errors the number of chunks which couldn't be read
+     */
+    public record Result(long nanos, Map<String, Long> bytes, int errors) {
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Pre-touched ");
+            bytes.forEach((c, b) -> sb.append(c).append(": ").append(b / 1024).append("kb, "));
+            return sb.append(errors).append(" errors in ").append(nanos / 1_000_000).append("ms").toString();
+        }
+    }
+
+    private static volatile Result last;
+    private static Thread driver; // guarded by PageToucher.class
+
+    /**
+     * Touches the given pages and regions of the given categories with {@code threads} threads.
+     */
+    public static Result touch(List<Long> pages, List<MemoryRegions.Region> regions, List<String> order, int threads) {
+        long start = System.nanoTime();
+        // Split everything into chunks in priority order
+        ArrayList<long[]> chunks = new ArrayList<>();
+        ArrayList<String> categories = new ArrayList<>();
+        for (long page : pages) {
+            chunks.add(new long[] { page & -PAGE_SIZE, (page & -PAGE_SIZE) + 1 });
+            categories.add("Page list");
+        }
+        for (String category : order) {
+            for (MemoryRegions.Region r : regions) {
+                if (!category.equals(r.category())) {
+                    continue;
+                }
+                for (long c = r.start(); c < r.end(); c += CHUNK_SIZE) {
+                    chunks.add(new long[] { c, Math.min(c + CHUNK_SIZE, r.end()) });
+                    categories.add(category);
+                }
+            }
+        }
+        LinkedHashMap<String, AtomicLong> touched = new LinkedHashMap<>();
+        categories.forEach(c -> touched.putIfAbsent(c, new AtomicLong()));
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        try (FileChannel mem = FileChannel.open(Path.of("/proc/self/mem"))) {
+            Runnable worker = () -> {
+                ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK_SIZE);
+                int i;
+                while ((i = next.getAndIncrement()) < chunks.size()) {
+                    long[] chunk = chunks.get(i);
+                    buf.clear().limit((int)(chunk[1] - chunk[0]));
+                    try {
+                        // Reading the whole chunk faults in all of its pages
+                        while (buf.hasRemaining()) {
+                            if (mem.read(buf, chunk[0] + buf.position()) <= 0) {
+                                break;
+                            }
+                        }
+                    } catch (IOException ioe) {
+                        errors.incrementAndGet();
+                    }
+                    touched.get(categories.get(i)).addAndGet(buf.position());
+                }
+            };
+            Thread[] workers = new Thread[Math.max(1, threads)];
+            for (int t = 0; t < workers.length; t++) {
+                workers[t] = new Thread(worker, "PageToucher-" + t);
+                workers[t].setDaemon(true);
+                workers[t].start();
+            }
+            for (Thread t : workers) {
+                t.join();
+            }
+        } catch (IOException | InterruptedException e) {
+            log.warn("Pre-touching failed:", e);
+        }
+        LinkedHashMap<String, Long> bytes = new LinkedHashMap<>();
+        touched.forEach((c, b) -> bytes.put(c, b.get()));
+        return new Result(System.nanoTime() - start, bytes, errors.get());
+    }
+
+    /**
+     * Reads a list of hexadecimal page addresses (one per line).
+     */
+    public static List<Long> readPageList(String file) throws IOException {
+        ArrayList<Long> pages = new ArrayList<>();
+        for (String line : Files.readAllLines(Path.of(file))) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            pages.add(Long.parseUnsignedLong(line.startsWith("0x") ? line.substring(2) : line, 16));
+        }
+        return pages;
+    }
+
+    /**
+     * Starts pre-touching in the background.
+     *
+     * @param order comma separated list of NMT categories in the order they should be touched
+     * @param pageList file with pages which should be touched first or {@code null}
+     * @return false if a pre-touch run is still in progress
+     */
+    public static synchronized boolean start(String order, String pageList, int threads) {
+        if (driver != null && driver.isAlive()) {
+            return false;
+        }
+        driver = new Thread(() -> {
+            List<Long> pages = List.of();
+            if (pageList != null) {
+                try {
+                    pages = readPageList(pageList);
+                } catch (IOException | NumberFormatException e) {
+                    log.warn("Can't read page list {}:", pageList, e);
+                }
+            }
+            last = touch(pages, MemoryRegions.committed(), List.of(order.split("\\s*,\\s*")), threads);
+            log.info("{}", last);
+        }, "PageToucher");
+        driver.setDaemon(true);
+        driver.start();
+        return true;
+    }
+
+    /**
+     * Returns a human readable report of the last pre-touch run.
+     */
+    public static String status() {
+        Result r = last;
+        if (r != null) {
+            return r.toString();
+        }
+        synchronized (PageToucher.class) {
+            return driver == null ? "Pre-touch: not started" : "Pre-touch: running";
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package io.simonis.memory;
+
+import io.simonis.utils.DiagnosticCommand;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * The current virtual layout of the GC heap regions, the code heap segments and the
+ * CDS archive of the VM in the compact text format understood by the {@code UffdVisualizer}:
+ * <pre>
+ * &lt;pid&gt;:
+ * h 0x&lt;start&gt; 0x&lt;end&gt; &lt;used&gt; &lt;type&gt;
+ * c 0x&lt;start&gt; 0x&lt;end&gt; &lt;used&gt; &lt;name&gt;
+ * s 0x&lt;start&gt; 0x&lt;end&gt; &lt;used&gt; &lt;name&gt;
+ * </pre>
+ * where {@code h} lines are heap regions, {@code c} lines code heap segments and
+ * {@code s} lines CDS regions. Addresses are 16 digit hex numbers, {@code used} is in bytes.
+ *
+ * <p>With G1, every heap region and its type (e.g. "Eden", "Old" or "Starts Humongous")
+ * is parsed from the region table printed by {@code jcmd VM.info}. For the other
+ * collectors the spaces of the generations are parsed from {@code jcmd GC.heap_info}.
+ *
+ * <p>Alternatively, the G1 regions can be taken from the {@code jdk.G1HeapRegionInformation}
+ * JFR event. This is cheaper than formatting the whole {@code VM.info} output for large heaps,
+ * but a JFR recording in the VM permanently starts the JFR threads and allocates its buffers,
+ * which is why it has to be requested explicitly.
+ */
+public class RegionMap {
+
+    /**
+     * @param kind 'h' for heap regions, 'c' for code heap segments and 's' for CDS regions
+     */
+    public record Region(char kind, String type, long start, long end, long used) {
+        @Override
+        public String toString() {
+            return String.format("%c %#018x %#018x %d %s", kind, start, end, used, type);
+        }
+    }
+
+    // E.g. "  eden space 25664K,  18% used [0x00000000a2000000, 0x00000000a2483100, 0x00000000a3910000)"
+    private static final Pattern SPACE = Pattern.compile(
+        "\\s*(.+?) space \\d+K,\\s+\\d+% used \\[0x(\\p{XDigit}+),\\s*0x(\\p{XDigit}+),(?:.*,)?\\s*0x(\\p{XDigit}+)\\)");
+    // E.g. "CodeHeap 'non-profiled nmethods': size=120036Kb used=139Kb max_used=139Kb free=119896Kb"
+    //      " bounds [0x00007fea38ec7000, 0x00007fea39137000, 0x00007fea40400000]"
+    private static final Pattern CODE_HEAP = Pattern.compile("(CodeHeap '.+'|CodeCache):.* used=(\\d+)Kb.*");
+    private static final Pattern BOUNDS = Pattern.compile("\\s*bounds \\[0x(\\p{XDigit}+), 0x(\\p{XDigit}+), 0x(\\p{XDigit}+)\\]");
+    // E.g. "CDS archive(s) mapped at: [0x00007fe9f0000000-0x00007fe9f0bc6000-0x00007fe9f0bc6000), size 12345344, ..."
+    private static final Pattern CDS = Pattern.compile(
+        "CDS archive\\(s\\) mapped at: \\[0x(\\p{XDigit}+)-0x(\\p{XDigit}+)-0x(\\p{XDigit}+)\\), size (\\d+).*");
+    // E.g. "|  12|0x00000000fcc00000, 0x00000000fcc4a3b8, 0x00000000fcd00000| 28%| E|CS|TAMS 0x00000000fcc00000, ..."
+    private static final Pattern G1_REGION = Pattern.compile(
+        "\\|\\s*\\d+\\|0x(\\p{XDigit}+), 0x(\\p{XDigit}+), 0x(\\p{XDigit}+)\\|\\s*\\d+%\\|\\s*(\\w+)\\|.*");
+
+    private static boolean isG1() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc.getName().startsWith("G1")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The same names as used by the jdk.G1HeapRegionInformation JFR event
+    private static String g1RegionType(String shortName) {
+        return switch (shortName) {
+            case "F" -> "Free";
+            case "E" -> "Eden";
+            case "S" -> "Survivor";
+            case "O" -> "Old";
+            case "HS" -> "Starts Humongous";
+            case "HC" -> "Continues Humongous";
+            case "OA" -> "OpenArchive";
+            case "CA" -> "ClosedArchive";
+            default -> shortName;
+        };
+    }
+
+    private static List<Region> g1Regions(String vmInfo) {
+        ArrayList<Region> regions = new ArrayList<>();
+        Matcher m = G1_REGION.matcher("");
+        for (String line : vmInfo.split("\n")) {
+            if (m.reset(line).matches()) {
+                long start = Long.parseUnsignedLong(m.group(1), 16);
+                long top = Long.parseUnsignedLong(m.group(2), 16);
+                regions.add(new Region('h', g1RegionType(m.group(4)), start, Long.parseUnsignedLong(m.group(3), 16), top - start));
+            }
+        }
+        return regions;
+    }
+
+    private static List<Region> g1RegionsFromJfr() throws IOException {
+        long regionSize = Long.parseLong(ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+                                         .getVMOption("G1HeapRegionSize").getValue());
+        Path jfr = Files.createTempFile("regions", ".jfr");
+        try (Recording recording = new Recording()) {
+            // The event is emitted at the beginning and the end of every chunk
+            recording.enable("jdk.G1HeapRegionInformation");
+            recording.start();
+            recording.stop();
+            recording.dump(jfr);
+            TreeMap<Integer, Region> regions = new TreeMap<>();
+            for (RecordedEvent e : RecordingFile.readAllEvents(jfr)) {
+                if ("jdk.G1HeapRegionInformation".equals(e.getEventType().getName())) {
+                    long start = e.getLong("start");
+                    regions.put(e.getInt("index"), new Region('h', e.getString("type"), start, start + regionSize, e.getLong("used")));
+                }
+            }
+            return new ArrayList<>(regions.values());
+        } finally {
+            Files.deleteIfExists(jfr);
+        }
+    }
+
+    private static List<Region> generationSpaces() throws Exception {
+        ArrayList<Region> regions = new ArrayList<>();
+        Matcher m = SPACE.matcher("");
+        for (String line : DiagnosticCommand.execute("GC.heap_info").split("\n")) {
+            if (m.reset(line).matches()) {
+                long start = Long.parseUnsignedLong(m.group(2), 16);
+                long top = Long.parseUnsignedLong(m.group(3), 16);
+                // The spaces of the old generation are called "the" (Serial) and "object" (Parallel)
+                String name = switch (m.group(1).strip()) {
+                    case "the", "object" -> "old";
+                    default -> m.group(1).strip();
+                };
+                regions.add(new Region('h', name, start, Long.parseUnsignedLong(m.group(4), 16), top - start));
+            }
+        }
+        return regions;
+    }
+
+    private static List<Region> codeHeaps() throws Exception {
+        ArrayList<Region> regions = new ArrayList<>();
+        Matcher m = CODE_HEAP.matcher(""), b = BOUNDS.matcher("");
+        String name = null;
+        long used = 0;
+        for (String line : DiagnosticCommand.execute("Compiler.codecache").split("\n")) {
+            if (m.reset(line).matches()) {
+                name = m.group(1).replace("'", "");
+                used = Long.parseLong(m.group(2)) * 1024;
+            } else if (name != null && b.reset(line).matches()) {
+                // The bounds are [low boundary, committed high, high boundary]
+                regions.add(new Region('c', name, Long.parseUnsignedLong(b.group(1), 16),
+                                       Long.parseUnsignedLong(b.group(2), 16), used));
+                name = null;
+            }
+        }
+        return regions;
+    }
+
+    private static List<Region> cdsRegions(String vmInfo) {
+        ArrayList<Region> regions = new ArrayList<>();
+        Matcher m = CDS.matcher("");
+        for (String line : vmInfo.split("\n")) {
+            if (m.reset(line).matches()) {
+                long start = Long.parseUnsignedLong(m.group(1), 16);
+                long end = Long.parseUnsignedLong(m.group(3), 16);
+                regions.add(new Region('s', "CDS archive", start, end, end - start));
+                break;
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Collects the current region map. Parts which can't be collected are omitted.
+     *
+     * @param jfr take the G1 regions from a JFR recording instead of {@code VM.info}
+     */
+    public static List<Region> collect(boolean jfr) {
+        ArrayList<Region> regions = new ArrayList<>();
+        String vmInfo = "";
+        try {
+            vmInfo = DiagnosticCommand.execute("VM.info");
+        } catch (Exception e) {}
+        try {
+            if (!isG1()) {
+                regions.addAll(generationSpaces());
+            } else {
+                regions.addAll(jfr ? g1RegionsFromJfr() : g1Regions(vmInfo));
+            }
+        } catch (Exception e) {}
+        try {
+            regions.addAll(codeHeaps());
+        } catch (Exception e) {}
+        regions.addAll(cdsRegions(vmInfo));
+        return regions;
+    }
+
+    /**
+     * Formats the region map in the {@code UffdVisualizer} format.
+     */
+    public static String format(List<Region> regions) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(ProcessHandle.current().pid()).append(":\n");
+        for (Region r : regions) {
+            sb.append(r).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a per type summary (number of regions, committed and used bytes) of the region map.
+     */
+    public static String summary(List<Region> regions) {
+        TreeMap<String, long[]> types = new TreeMap<>();
+        for (Region r : regions) {
+            long[] t = types.computeIfAbsent(r.kind() + " " + r.type(), k -> new long[3]);
+            t[0]++;
+            t[1] += r.end() - r.start();
+            t[2] += r.used();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, long[]> e : types.entrySet()) {
+            long[] t = e.getValue();
+            sb.append(String.format("%-30s %5d regions %9dkb committed %9dkb used%n", e.getKey(), t[0], t[1] / 1024, t[2] / 1024));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package io.simonis.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Soft-dirty tracking of the pages written by the VM (see
+ * https://www.kernel.org/doc/html/latest/admin-guide/mm/soft-dirty.html).
+ *
+ * <p>{@link #clear()} clears the soft-dirty bits of all the pages of the process and
+ * {@link #dirty()} reports the pages which were written since then, per NMT category.
+ * Written pages outside of the NMT regions (e.g. malloc arenas, thread stacks or the data
+ * segments of shared libraries) are attributed to their mapping from {@code /proc/self/maps}.
+ * If the soft-dirty bits are cleared after a restore, the report taken right before the
+ * next suspend approximates the content of the next diff snapshot.
+ */
+public class SoftDirty {
+
+    private static final int PAGE_SIZE = PageMapCollector.PAGE_SIZE;
+
+    private static volatile long cleared;
+
+    /**
+     * @param bytes the dirty bytes per category, largest first
+     * @param sinceNanos the time since the soft-dirty bits were cleared or -1 if they weren't cleared by us
+     * @param nanos the time it took to scan the page map
+     */
+    public record Result(Map<String, Long> bytes, long total, long sinceNanos, long nanos) {
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%dkb dirty%s (scanned in %dms)%n", total / 1024,
+                                    sinceNanos < 0 ? "" : " in the last " + sinceNanos / 1_000_000 + "ms", nanos / 1_000_000));
+            bytes.forEach((c, b) -> sb.append(String.format("  %-40s %9dkb%n", c, b / 1024)));
+            if (total == 0) {
+                // A running VM always writes some pages (e.g. its thread stacks)
+                sb.append("  The kernel probably doesn't support soft-dirty tracking (CONFIG_MEM_SOFT_DIRTY)\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Clears the soft-dirty bits of all the pages of the process.
+     *
+     * @return the time it took in nanoseconds
+     */
+    public static long clear() throws IOException {
+        long start = System.nanoTime();
+        // "4" only clears the soft-dirty bits, the referenced bits are left alone
+        Files.writeString(Path.of("/proc/self/clear_refs"), "4");
+        cleared = System.nanoTime();
+        return cleared - start;
+    }
+
+    /**
+     * Returns the pages which were written since the last {@link #clear()}.
+     * Mappings which can't be read from {@code /proc/self/pagemap} are skipped.
+     */
+    public static Result dirty() throws IOException {
+        long start = System.nanoTime();
+        List<Mapping> maps = Mapping.read(Path.of("/proc/self/maps"));
+        CategoryLookup categories = new CategoryLookup(maps);
+        HashMap<String, Long> bytes = new HashMap<>();
+        long[] total = new long[1];
+        ByteBuffer buffer = PageMapCollector.newBuffer();
+        try (FileChannel pagemap = FileChannel.open(Path.of("/proc/self/pagemap"), StandardOpenOption.READ)) {
+            for (Mapping m : maps) {
+                if (!m.writable()) {
+                    // Read-only pages can't become dirty
+                    continue;
+                }
+                try {
+                    PageMapCollector.scan(pagemap, buffer, m.start(), m.end(), (address, entry) -> {
+                        if ((entry & PageMapCollector.PM_PRESENT) != 0 && (entry & PageMapCollector.PM_SOFT_DIRTY) != 0) {
+                            bytes.merge(categories.category(address), (long)PAGE_SIZE, Long::sum);
+                            total[0] += PAGE_SIZE;
+                        }
+                    });
+                } catch (IOException ioe) {
+                    // E.g. [vvar] or device mappings can't be read from pagemap
+                }
+            }
+        }
+        LinkedHashMap<String, Long> sorted = new LinkedHashMap<>();
+        bytes.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+            .forEach(e -> sorted.put(e.getKey(), e.getValue()));
+        long c = cleared;
+        return new Result(sorted, total[0], c == 0 ? -1 : System.nanoTime() - c, System.nanoTime() - start);
+    }
+}
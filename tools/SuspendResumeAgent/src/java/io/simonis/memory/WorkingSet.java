@@ -0,0 +1,374 @@
+package io.simonis.memory;
+
+import io.simonis.utils.Logger;
+import io.simonis.utils.MemoryStats;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the working set of the VM right after a restore, i.e. the pages which
+ * become resident or are accessed during the first seconds after RESUME.
+ *
+ * <p>The first sample takes a baseline of the resident pages from {@code /proc/self/pagemap}
+ * and marks their physical pages as idle in {@code /sys/kernel/mm/page_idle/bitmap}. Every
+ * following sample records the pages which became resident since the baseline or which
+ * were accessed (i.e. aren't idle any more), together with the time of the sample. Only
+ * newly resident pages can be recorded without idle page tracking, which requires root
+ * (for the physical addresses) and a kernel with {@code CONFIG_IDLE_PAGE_TRACKING}.
+ *
+ * <p>The recorded pages are reported per NMT category (pages outside of NMT regions per
+ * mapping from {@code /proc/self/maps}) and per contiguous virtual range. They can be exported
+ * in access order as a page list which can be used as {@code pretouchPageList} for {@link PageToucher}.
+ * Pre-touching should be disabled while recording, otherwise all pre-touched pages are recorded.
+ *
+ * <p>The recorder tries not to skew the working set (in particular the "Java Heap" category) by its
+ * own allocations: the arrays for the recorded pages are preallocated for the resident set size before
+ * the baseline is taken, {@code /proc/self/maps} and the idle bitmap are read into reused off-heap buffers
+ * and the page bitmaps are allocated while taking the baseline. The recorded pages only contain the
+ * recorder's own memory if the arrays have to grow or if new mappings show up after the baseline.
+ */
+public class WorkingSet {
+
+    private static final Logger log = Logger.getLogger(WorkingSet.class);
+
+    private static final int PAGE_SIZE = PageMapCollector.PAGE_SIZE;
+    private static final Path IDLE_BITMAP = Path.of("/sys/kernel/mm/page_idle/bitmap");
+
+    /**
+     * A contiguous range of recorded pages.
+     *
+     * @param firstMillis the time of the first sample in which a page of the range was recorded
+     */
+    public record Range(String category, long start, long end, long firstMillis) {
+        @Override
+        public String toString() {
+            return String.format("%#018x-%#018x %7dkb at %5dms %s", start, end, (end - start) / 1024, firstMillis, category);
+        }
+    }
+
+    /**
+     * @param bytes the recorded bytes per category, largest first
+     * @param ranges the largest contiguous ranges of recorded pages
+     * @param idleTracking true if accessed pages were tracked, false if only newly resident pages were tracked
+     */
+    public record Result(boolean running, int samples, long millis, boolean idleTracking,
+                         long total, Map<String, Long> bytes, List<Range> ranges) {
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Working set%s: %dkb %s in %d samples over %dms%n", running ? " (recording)" : "",
+                                    total / 1024, idleTracking ? "resident or accessed" : "newly resident", samples, millis));
+            bytes.forEach((c, b) -> sb.append(String.format("  %-40s %9dkb%n", c, b / 1024)));
+            if (!ranges.isEmpty()) {
+                sb.append("Largest ranges:\n");
+                ranges.forEach(r -> sb.append("  ").append(r).append('\n'));
+            }
+            return sb.toString();
+        }
+    }
+
+    // The recorded page addresses and the time (in ms after the start) they were recorded at, guarded by WorkingSet.class
+    private static long[] pages = new long[0];
+    private static int[] times = new int[0];
+    private static int recorded;
+    private static int samples;
+    private static long millis;
+    private static boolean idleTracking;
+    private static Thread recorder; // guarded by WorkingSet.class
+
+    // A set of pages as bitmaps of 32k pages (i.e. 128mb) per key. Mappings can be split or merged,
+    // so we can't key by mapping. Pages are mostly accessed in ascending order, so the bitmap of the
+    // last key is cached to avoid boxing the key for every page.
+    private static final class PageSet {
+        private final HashMap<Long, BitSet> bitmaps = new HashMap<>();
+        private long lastKey = -1;
+        private BitSet last;
+
+        private BitSet bitmap(long page, boolean create) {
+            long key = page >>> 15;
+            if (key != lastKey || (last == null && create)) {
+                last = create ? bitmaps.computeIfAbsent(key, k -> new BitSet(1 << 15)) : bitmaps.get(key);
+                lastKey = key;
+            }
+            return last;
+        }
+
+        boolean get(long page) {
+            BitSet bits = bitmap(page, false);
+            return bits != null && bits.get((int)(page & 0x7fff));
+        }
+
+        void set(long page) {
+            bitmap(page, true).set((int)(page & 0x7fff));
+        }
+
+        // Allocates the bitmap for 'page' up front
+        void reserve(long page) {
+            bitmap(page, true);
+        }
+    }
+
+    // The pages which were resident in the baseline and the pages which were recorded
+    private final PageSet baseline = new PageSet();
+    private final PageSet seen = new PageSet();
+    private final ByteBuffer buffer = PageMapCollector.newBuffer();
+    private ByteBuffer maps = ByteBuffer.allocateDirect(256 * 1024);
+    private long minPfn = Long.MAX_VALUE, maxPfn = -1;
+    private ByteBuffer idle; // the idle bitmap words for [minPfn / 64, maxPfn / 64]
+    // The time of the current sample or -1 while taking the baseline
+    private int time;
+    private final PageMapCollector.EntryConsumer sampler = this::samplePage;
+
+    private WorkingSet() {}
+
+    private static synchronized void record(long page, int time) {
+        if (recorded == pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(1024, recorded * 2));
+            times = Arrays.copyOf(times, pages.length);
+        }
+        pages[recorded] = page;
+        times[recorded++] = time;
+    }
+
+    private boolean isIdle(long pfn) {
+        long word = pfn / 64 - minPfn / 64;
+        if (idle == null || pfn < minPfn || word >= idle.limit() / 8) {
+            // Not part of the baseline, e.g. because the page was migrated
+            return true;
+        }
+        return (idle.getLong((int)word * 8) & (1L << (pfn % 64))) != 0;
+    }
+
+    // Reads /proc/self/maps into the reused 'maps' buffer which only grows if it is too small
+    private void readMaps(FileChannel channel) throws IOException {
+        maps.clear();
+        while (channel.read(maps, maps.position()) > 0) {
+            if (!maps.hasRemaining()) {
+                maps = ByteBuffer.allocateDirect(maps.capacity() * 2).put(maps.flip());
+            }
+        }
+        maps.flip();
+    }
+
+    /**
+     * Scans all the readable mappings. The first scan takes the baseline,
+     * all the others record new pages with the given time stamp.
+     */
+    private void sample(FileChannel pagemap, FileChannel mapsChannel, int time) throws IOException {
+        readMaps(mapsChannel);
+        this.time = time;
+        // Parse the lines in place, e.g. "7f2c4c021000-7f2c50000000 rw-p 00000000 00:00 0       /usr/lib/libc.so"
+        int pos = 0, limit = maps.limit();
+        while (pos < limit) {
+            long start = 0, end = 0;
+            byte c;
+            while ((c = maps.get(pos++)) != '-') {
+                start = start << 4 | Character.digit(c, 16);
+            }
+            while ((c = maps.get(pos++)) != ' ') {
+                end = end << 4 | Character.digit(c, 16);
+            }
+            boolean readable = maps.get(pos) == 'r';
+            while (pos < limit && maps.get(pos++) != '\n');
+            // Addresses in the upper half (i.e. [vsyscall]) can't be read from pagemap
+            if (readable && start >= 0) {
+                try {
+                    PageMapCollector.scan(pagemap, buffer, start, end, sampler);
+                } catch (IOException ioe) {
+                    // The mapping was probably unmapped concurrently
+                }
+            }
+        }
+    }
+
+    private void samplePage(long address, long entry) {
+        long page = address / PAGE_SIZE;
+        if ((entry & PageMapCollector.PM_PRESENT) == 0 || seen.get(page)) {
+            return;
+        }
+        long pfn = entry & PageMapCollector.PM_PFN;
+        if (time < 0) {
+            baseline.set(page);
+            seen.reserve(page);
+            if (pfn != 0) {
+                minPfn = Math.min(minPfn, pfn);
+                maxPfn = Math.max(maxPfn, pfn);
+            }
+        } else if (!baseline.get(page) || (idleTracking && pfn != 0 && !isIdle(pfn))) {
+            seen.set(page);
+            record(address, time);
+        }
+    }
+
+    private void markIdle(FileChannel bitmap) throws IOException {
+        int words = (int)(maxPfn / 64 - minPfn / 64 + 1);
+        // Reused by readIdle()
+        idle = ByteBuffer.allocateDirect(words * 8).order(ByteOrder.nativeOrder());
+        while (idle.hasRemaining()) {
+            idle.put((byte)0xff);
+        }
+        idle.flip();
+        // This marks the pages of the other processes in the same words as idle as well, which doesn't hurt
+        while (idle.hasRemaining()) {
+            bitmap.write(idle, minPfn / 64 * 8 + idle.position());
+        }
+    }
+
+    private void readIdle(FileChannel bitmap) throws IOException {
+        idle.clear();
+        while (idle.hasRemaining() && bitmap.read(idle, minPfn / 64 * 8 + idle.position()) > 0);
+        idle.flip();
+    }
+
+    private void run(long durationMillis, long intervalMillis) {
+        long start = System.nanoTime();
+        FileChannel bitmap = null;
+        synchronized (WorkingSet.class) {
+            // Preallocated before the baseline, so growing them doesn't show up in the working set
+            int capacity = (int)Math.max(1024, MemoryStats.rss() / PAGE_SIZE);
+            if (pages.length < capacity) {
+                pages = new long[capacity];
+                times = new int[capacity];
+            }
+        }
+        try (FileChannel pagemap = FileChannel.open(Path.of("/proc/self/pagemap"), StandardOpenOption.READ);
+             FileChannel mapsChannel = FileChannel.open(Path.of("/proc/self/maps"), StandardOpenOption.READ)) {
+            sample(pagemap, mapsChannel, -1);
+            if (maxPfn >= 0) {
+                try {
+                    bitmap = FileChannel.open(IDLE_BITMAP, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    markIdle(bitmap);
+                } catch (IOException ioe) {
+                    log.info("Idle page tracking not available ({}), only recording newly resident pages", ioe);
+                    bitmap = null;
+                }
+            }
+            synchronized (WorkingSet.class) {
+                idleTracking = bitmap != null;
+            }
+            log.info("Recording the working set for {}ms{}", durationMillis, bitmap != null ? " with idle page tracking" : "");
+            long deadline = start + durationMillis * 1_000_000;
+            while (System.nanoTime() < deadline) {
+                Thread.sleep(intervalMillis);
+                if (bitmap != null) {
+                    readIdle(bitmap);
+                }
+                int time = (int)((System.nanoTime() - start) / 1_000_000);
+                sample(pagemap, mapsChannel, time);
+                synchronized (WorkingSet.class) {
+                    samples++;
+                    millis = time;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            log.warn("Recording the working set failed:", e);
+        } finally {
+            try {
+                if (bitmap != null) {
+                    bitmap.close();
+                }
+            } catch (IOException ioe) {}
+        }
+        log.info("{}", report());
+    }
+
+    /**
+     * Starts recording the working set in the background for {@code durationMillis},
+     * taking a sample every {@code intervalMillis}.
+     *
+     * @return false if a recording is still in progress
+     */
+    public static synchronized boolean start(long durationMillis, long intervalMillis) {
+        if (recorder != null && recorder.isAlive()) {
+            return false;
+        }
+        recorded = 0;
+        samples = 0;
+        millis = 0;
+        recorder = new Thread(() -> new WorkingSet().run(durationMillis, Math.max(1, intervalMillis)), "WorkingSetRecorder");
+        recorder.setDaemon(true);
+        recorder.start();
+        return true;
+    }
+
+    /**
+     * Returns the recorded working set per category and the {@code maxRanges} largest ranges.
+     */
+    public static synchronized Result report(int maxRanges) {
+        long[] sorted = new long[recorded];
+        HashMap<Long, Integer> time = new HashMap<>();
+        for (int i = 0; i < recorded; i++) {
+            sorted[i] = pages[i];
+            time.put(pages[i], times[i]);
+        }
+        Arrays.sort(sorted);
+        // Attribute the pages to the NMT categories or to their mapping
+        CategoryLookup lookup;
+        try {
+            lookup = new CategoryLookup(Mapping.read(Path.of("/proc/self/maps")));
+        } catch (IOException ioe) {
+            lookup = new CategoryLookup(List.of());
+        }
+        HashMap<String, Long> bytes = new HashMap<>();
+        ArrayList<Range> ranges = new ArrayList<>();
+        for (int i = 0; i < sorted.length; ) {
+            long page = sorted[i];
+            MemoryRegions.Region r = lookup.region(page);
+            String category = lookup.category(page);
+            long end = page + PAGE_SIZE;
+            int first = time.get(page);
+            // Ranges don't cross NMT regions
+            long limit = r != null ? r.end() : Long.MAX_VALUE;
+            for (i++; i < sorted.length && sorted[i] == end && end < limit; i++, end += PAGE_SIZE) {
+                first = Math.min(first, time.get(sorted[i]));
+            }
+            bytes.merge(category, end - page, Long::sum);
+            ranges.add(new Range(category, page, end, first));
+        }
+        ranges.sort((a, b) -> Long.compare(b.end() - b.start(), a.end() - a.start()));
+        LinkedHashMap<String, Long> categories = new LinkedHashMap<>();
+        bytes.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+            .forEach(e -> categories.put(e.getKey(), e.getValue()));
+        boolean running = recorder != null && recorder.isAlive();
+        return new Result(running, samples, millis, idleTracking, (long)recorded * PAGE_SIZE, categories,
+                          List.copyOf(ranges.subList(0, Math.min(maxRanges, ranges.size()))));
+    }
+
+    public static Result report() {
+        return report(20);
+    }
+
+    /**
+     * Writes the recorded pages in the order they were recorded as a page list for {@link PageToucher}.
+     *
+     * @return the number of exported pages
+     */
+    public static synchronized int export(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            int time = -1;
+            for (int i = 0; i < recorded; i++) {
+                if (times[i] != time) {
+                    time = times[i];
+                    out.println("# " + time + "ms");
+                }
+                out.println(String.format("%#018x", pages[i]));
+            }
+        }
+        return recorded;
+    }
+}
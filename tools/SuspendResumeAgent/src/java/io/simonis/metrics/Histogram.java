@@ -0,0 +1,71 @@
+package io.simonis.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with fixed buckets in the Prometheus exposition format.
+ */
+public class Histogram {
+
+    // Upper bounds of the buckets in seconds
+    private static final double[] BOUNDS = { 0.001, 0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS.length];
+    private static final String[] LABELS = new String[BOUNDS.length + 1];
+    static {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUNDS_NANOS[i] = (long)(BOUNDS[i] * 1_000_000_000L);
+            LABELS[i] = "_bucket{le=\"" + BOUNDS[i] + "\"} ";
+        }
+        LABELS[BOUNDS.length] = "_bucket{le=\"+Inf\"} ";
+    }
+
+    private final String name, help;
+    // Non-cumulative counts, the last one is for the +Inf bucket
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    public Histogram(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    public void observe(long nanos) {
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+            i++;
+        }
+        buckets.incrementAndGet(i);
+        sumNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Appends {@code nanos} as seconds with nine decimals. Unlike {@code append(double)}
+     * this doesn't allocate.
+     */
+    static void appendSeconds(StringBuilder sb, long nanos) {
+        sb.append(nanos / 1_000_000_000L).append('.');
+        long fraction = nanos % 1_000_000_000L;
+        for (long digit = 100_000_000L; digit > 0; digit /= 10) {
+            sb.append((char)('0' + fraction / digit % 10));
+        }
+    }
+
+    /**
+     * Appends the histogram in the Prometheus text format to {@code sb} without allocating
+     * (as long as {@code sb} has enough capacity).
+     */
+    void writeTo(StringBuilder sb) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        long count = 0;
+        for (int i = 0; i < LABELS.length; i++) {
+            count += buckets.get(i);
+            sb.append(name).append(LABELS[i]).append(count).append('\n');
+        }
+        sb.append(name).append("_sum ");
+        appendSeconds(sb, sumNanos.get());
+        sb.append('\n');
+        sb.append(name).append("_count ").append(count).append('\n');
+    }
+}
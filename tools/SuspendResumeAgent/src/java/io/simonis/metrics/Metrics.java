@@ -0,0 +1,135 @@
+package io.simonis.metrics;
+
+import io.simonis.crac.Core;
+import io.simonis.crac.impl.OrderedContext;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checkpoint/restore metrics of the agent in the Prometheus text exposition format.
+ *
+ * <p>Recording only updates atomics. Rendering reuses a single buffer and formats the
+ * durations without {@code append(double)}, so scraping doesn't allocate once the buffer
+ * has grown to its final size (apart from what the HTTP server itself allocates).
+ */
+public class Metrics {
+
+    private static final String PREFIX = "firecracer_";
+
+    private static final AtomicLong checkpoints = new AtomicLong();
+    private static final AtomicLong restores = new AtomicLong();
+    private static final AtomicLong checkpointErrors = new AtomicLong();
+    private static final AtomicLong restoreErrors = new AtomicLong();
+    private static final Histogram checkpointLatency = new Histogram(PREFIX + "checkpoint_duration_seconds",
+        "Time from the SUSPEND command until the threads get suspended.");
+    private static final Histogram restoreLatency = new Histogram(PREFIX + "restore_duration_seconds",
+        "Time from the RESUME command until all resources are restored.");
+    private static volatile int suspendedThreads;
+    private static volatile int threadFailures;
+    private static volatile long heapUsedAtSuspend, heapCommittedAtSuspend;
+    private static volatile long lastRestoreNanos;
+
+    private static final Core.Priority[] priorities = Core.Priority.values();
+    private static final StringBuilder buffer = new StringBuilder(4096); // guarded by Metrics.class
+    private static byte[] bytes = new byte[4096]; // guarded by Metrics.class
+
+    /**
+     * Records a checkpoint right before the threads get suspended.
+     */
+    public static void checkpoint(long nanos, boolean error, long heapUsed, long heapCommitted) {
+        checkpoints.incrementAndGet();
+        if (error) {
+            checkpointErrors.incrementAndGet();
+        }
+        checkpointLatency.observe(nanos);
+        heapUsedAtSuspend = heapUsed;
+        heapCommittedAtSuspend = heapCommitted;
+    }
+
+    /**
+     * Records the result of {@code suspendThreads()}.
+     */
+    public static void suspended(int result) {
+        suspendedThreads = Math.max(0, result);
+        threadFailures = Math.max(0, -result);
+    }
+
+    /**
+     * Records a restore once all the resources were restored.
+     */
+    public static void restore(long nanos, boolean error) {
+        restores.incrementAndGet();
+        if (error) {
+            restoreErrors.incrementAndGet();
+        }
+        restoreLatency.observe(nanos);
+        lastRestoreNanos = System.nanoTime();
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+        sb.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+    }
+
+    private static void render(StringBuilder sb) {
+        counter(sb, "checkpoints_total", "Number of SUSPEND commands.", checkpoints.get());
+        counter(sb, "checkpoint_errors_total", "Number of checkpoints with beforeCheckpoint() errors.", checkpointErrors.get());
+        counter(sb, "restores_total", "Number of RESUME commands.", restores.get());
+        counter(sb, "restore_errors_total", "Number of restores with afterRestore() errors.", restoreErrors.get());
+        checkpointLatency.writeTo(sb);
+        restoreLatency.writeTo(sb);
+        gauge(sb, "registered_resources", "Number of registered resources per context priority.");
+        for (Core.Priority p : priorities) {
+            if (p.getContext() instanceof OrderedContext<?> context) {
+                sb.append(PREFIX).append("registered_resources{priority=\"").append(p.name()).append("\"} ")
+                  .append(context.size()).append('\n');
+            }
+        }
+        gauge(sb, "suspended_threads", "Number of threads suspended by the last SUSPEND.");
+        sb.append(PREFIX).append("suspended_threads ").append(suspendedThreads).append('\n');
+        gauge(sb, "thread_failures", "Number of threads which couldn't be suspended by the last SUSPEND.");
+        sb.append(PREFIX).append("thread_failures ").append(threadFailures).append('\n');
+        gauge(sb, "heap_used_at_suspend_bytes", "Used heap at the last SUSPEND.");
+        sb.append(PREFIX).append("heap_used_at_suspend_bytes ").append(heapUsedAtSuspend).append('\n');
+        gauge(sb, "heap_committed_at_suspend_bytes", "Committed heap at the last SUSPEND.");
+        sb.append(PREFIX).append("heap_committed_at_suspend_bytes ").append(heapCommittedAtSuspend).append('\n');
+        gauge(sb, "seconds_since_restore", "Time since the last RESUME (NaN if the VM was never restored).");
+        long last = lastRestoreNanos;
+        sb.append(PREFIX).append("seconds_since_restore ");
+        if (last == 0) {
+            sb.append("NaN");
+        } else {
+            Histogram.appendSeconds(sb, System.nanoTime() - last);
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * Renders all metrics as US-ASCII into a shared buffer and passes it to {@code sink}
+     * while holding the lock which protects the buffer.
+     */
+    public static synchronized void write(Sink sink) throws IOException {
+        buffer.setLength(0);
+        render(buffer);
+        int len = buffer.length();
+        if (bytes.length < len) {
+            bytes = new byte[Math.max(len, bytes.length * 2)];
+        }
+        for (int i = 0; i < len; i++) {
+            bytes[i] = (byte)buffer.charAt(i);
+        }
+        sink.write(bytes, len);
+    }
+
+    @FunctionalInterface
+    public interface Sink {
+        void write(byte[] bytes, int len) throws IOException;
+    }
+}
@@ -0,0 +1,57 @@
+package io.simonis.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the {@link Metrics} on {@code /metrics}. Requests are handled by a single
+ * daemon thread so scraping can't take more than one core away from the application.
+ * The server's dispatcher thread is a daemon thread as well, so the server never keeps
+ * the VM alive.
+ */
+public class MetricsServer {
+
+    private static HttpServer server; // guarded by MetricsServer.class
+
+    /**
+     * @param host the address to bind to (e.g. "127.0.0.1" or "0.0.0.0" for all interfaces)
+     */
+    public static synchronized void start(String host, int port) throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", MetricsServer::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "MetricsServer");
+            t.setDaemon(true);
+            return t;
+        }));
+        // The dispatcher thread created by start() inherits the daemon status of its creator
+        Thread starter = new Thread(server::start, "MetricsServer-start");
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            Metrics.write((bytes, len) -> {
+                exchange.sendResponseHeaders(200, len);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes, 0, len);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package io.simonis.policy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An open file descriptor of the current process as found in {@code /proc/self/fd}.
+ *
+ * @param fd the descriptor number
+ * @param kind the kind of the descriptor
+ * @param target the target of the {@code /proc/self/fd} link, e.g. a path or {@code socket:[1234]}
+ * @param flags the file status flags from {@code /proc/self/fdinfo}
+ * @param position the file position from {@code /proc/self/fdinfo}
+ * @param socket the socket details for sockets or {@code null}
+ */
+public record OpenDescriptor(int fd, Kind kind, String target, int flags, long position, Socket socket) {
+
+    public enum Kind { FILE, PIPE, SOCKET, OTHER }
+
+    /**
+     * The details of a socket from {@code /proc/net}.
+     *
+     * @param protocol one of {@code tcp}, {@code tcp6}, {@code udp}, {@code udp6} or {@code unix}
+     * @param local the local address or {@code null} for unix domain sockets
+     * @param remote the remote address or {@code null} if the socket isn't connected
+     * @param listening true for listening sockets
+     */
+    public record Socket(String protocol, InetSocketAddress local, InetSocketAddress remote, boolean listening) {
+
+        public boolean isStream() {
+            return protocol.startsWith("tcp");
+        }
+
+        boolean matchesFamily(String family) {
+            return switch (family) {
+                case "ipv4" -> protocol.equals("tcp") || protocol.equals("udp");
+                case "ipv6" -> protocol.endsWith("6");
+                case "inet" -> !protocol.equals("unix");
+                default -> protocol.equals(family);
+            };
+        }
+    }
+
+    static boolean sameAddress(String value, InetAddress address) {
+        try {
+            return InetAddress.getByName(value).equals(address);
+        } catch (UnknownHostException uhe) {
+            return false;
+        }
+    }
+
+    /**
+     * Lists all the open file descriptors of the current process. Descriptors
+     * which are closed while we're iterating over them are silently skipped.
+     */
+    public static List<OpenDescriptor> list() throws IOException {
+        ArrayList<OpenDescriptor> fds = new ArrayList<>();
+        Map<Long, Socket> sockets = null;
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(Path.of("/proc/self/fd"))) {
+            for (Path link : dir) {
+                int fd = Integer.parseInt(link.getFileName().toString());
+                String target;
+                try {
+                    target = Files.readSymbolicLink(link).toString();
+                } catch (IOException ioe) {
+                    continue;
+                }
+                Kind kind;
+                Socket socket = null;
+                if (target.startsWith("socket:[")) {
+                    kind = Kind.SOCKET;
+                    if (sockets == null) {
+                        sockets = sockets();
+                    }
+                    socket = sockets.get(Long.parseLong(target.substring(8, target.length() - 1)));
+                } else if (target.startsWith("pipe:[")) {
+                    kind = Kind.PIPE;
+                } else if (target.startsWith("/")) {
+                    kind = Kind.FILE;
+                } else {
+                    kind = Kind.OTHER;
+                }
+                int flags = 0;
+                long position = 0;
+                try {
+                    for (String line : Files.readAllLines(Path.of("/proc/self/fdinfo", Integer.toString(fd)))) {
+                        if (line.startsWith("pos:")) {
+                            position = Long.parseLong(line.substring(4).strip());
+                        } else if (line.startsWith("flags:")) {
+                            flags = Integer.parseInt(line.substring(6).strip(), 8);
+                        }
+                    }
+                } catch (IOException ioe) {
+                    continue;
+                }
+                fds.add(new OpenDescriptor(fd, kind, target, flags, position, socket));
+            }
+        }
+        return fds;
+    }
+
+    private static Map<Long, Socket> sockets() {
+        HashMap<Long, Socket> sockets = new HashMap<>();
+        for (String protocol : new String[] { "tcp", "tcp6", "udp", "udp6" }) {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(Path.of("/proc/net", protocol));
+            } catch (IOException ioe) {
+                continue;
+            }
+            // "sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode"
+            for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+                String[] f = line.strip().split("\\s+");
+                if (f.length < 10) {
+                    continue;
+                }
+                InetSocketAddress remote = address(f[2]);
+                // TCP_LISTEN is 0x0A
+                boolean listening = protocol.startsWith("tcp") && "0A".equals(f[3]);
+                sockets.put(Long.parseLong(f[9]), new Socket(protocol, address(f[1]),
+                                                             remote.getPort() == 0 ? null : remote, listening));
+            }
+        }
+        try {
+            List<String> lines = Files.readAllLines(Path.of("/proc/net/unix"));
+            // "Num RefCount Protocol Flags Type St Inode Path"
+            for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+                String[] f = line.strip().split("\\s+");
+                if (f.length >= 7) {
+                    // Flags is __SO_ACCEPTCON (0x10000) for listening sockets
+                    sockets.put(Long.parseLong(f[6]), new Socket("unix", null, null, "00010000".equals(f[3])));
+                }
+            }
+        } catch (IOException ioe) {}
+        return sockets;
+    }
+
+    // Addresses in /proc/net are "ADDRESS:PORT" in hex where every 32-bit word of the address is in host (little endian) order
+    private static InetSocketAddress address(String s) {
+        int colon = s.indexOf(':');
+        byte[] addr = new byte[colon / 2];
+        for (int i = 0; i < addr.length; i++) {
+            int word = i & ~3, b = 3 - (i & 3);
+            addr[i] = (byte)Integer.parseInt(s, (word + b) * 2, (word + b) * 2 + 2, 16);
+        }
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(addr), Integer.parseInt(s, colon + 1, s.length(), 16));
+        } catch (UnknownHostException uhe) {
+            throw new IllegalArgumentException(s, uhe);
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (socket != null && socket.local() != null) {
+            return fd + " -> " + socket.protocol() + " " + socket.local() + (socket.remote() != null ? " <-> " + socket.remote() : "")
+                + (socket.listening() ? " (listening)" : "");
+        }
+        return fd + " -> " + target;
+    }
+}
@@ -0,0 +1,134 @@
+package io.simonis.policy;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A rule of a {@code crac-resource-policies.yaml} file. Every YAML document (separated
+ * by {@code ---}) describes one rule with a {@code type} ({@code file}, {@code pipe},
+ * {@code socket} or {@code filedescriptor} for any kind), an {@code action} and
+ * optional attributes the descriptor has to match:
+ * <ul>
+ *   <li>{@code path}: a glob pattern for the path of a file</li>
+ *   <li>{@code family}: {@code ipv4}, {@code ipv6}, {@code inet} or {@code unix}</li>
+ *   <li>{@code localAddress}, {@code localPort}, {@code remoteAddress}, {@code remotePort}</li>
+ * </ul>
+ * A value of {@code *} matches everything. Only the flat {@code key: value} subset of
+ * YAML used by these files is supported.
+ */
+public record ResourcePolicy(String type, Map<String, String> attributes, Action action) {
+
+    public enum Action {
+        /** Leave the descriptor alone. */
+        IGNORE,
+        /** Close the descriptor before the checkpoint (it is replaced by {@code /dev/null}). */
+        CLOSE,
+        /** Detach the descriptor before the checkpoint and reopen/reconnect it after the restore. */
+        REOPEN,
+        /** Fail the checkpoint. */
+        ERROR
+    }
+
+    /**
+     * Parses all the rules from {@code file}.
+     */
+    public static List<ResourcePolicy> parse(Path file) throws IOException {
+        ArrayList<ResourcePolicy> policies = new ArrayList<>();
+        LinkedHashMap<String, String> doc = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file)) {
+            int hash = line.indexOf('#');
+            if (hash >= 0) {
+                line = line.substring(0, hash);
+            }
+            line = line.strip();
+            if (line.equals("---")) {
+                add(policies, doc, file);
+                doc = new LinkedHashMap<>();
+            } else if (!line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    throw new IOException(file + ": invalid line '" + line + "'");
+                }
+                String value = line.substring(colon + 1).strip();
+                if (value.length() > 1 && (value.startsWith("\"") || value.startsWith("'"))
+                    && value.charAt(value.length() - 1) == value.charAt(0)) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                doc.put(line.substring(0, colon).strip(), value);
+            }
+        }
+        add(policies, doc, file);
+        return policies;
+    }
+
+    private static void add(List<ResourcePolicy> policies, Map<String, String> doc, Path file) throws IOException {
+        if (doc.isEmpty()) {
+            return;
+        }
+        String type = doc.remove("type");
+        String action = doc.remove("action");
+        if (type == null || action == null) {
+            throw new IOException(file + ": 'type' and 'action' are required in " + doc);
+        }
+        try {
+            policies.add(new ResourcePolicy(type, Map.copyOf(doc), Action.valueOf(action.toUpperCase(Locale.ROOT))));
+        } catch (IllegalArgumentException iae) {
+            throw new IOException(file + ": unknown action '" + action + "'");
+        }
+    }
+
+    /**
+     * Returns true if this rule applies to {@code fd}.
+     */
+    public boolean matches(OpenDescriptor fd) {
+        switch (type) {
+            case "filedescriptor" -> {}
+            case "file", "pipe" -> {
+                if (fd.kind() != OpenDescriptor.Kind.valueOf(type.toUpperCase(Locale.ROOT))) {
+                    return false;
+                }
+            }
+            case "socket" -> {
+                if (fd.socket() == null) {
+                    return false;
+                }
+            }
+            default -> {
+                return false;
+            }
+        }
+        for (Map.Entry<String, String> e : attributes.entrySet()) {
+            String value = e.getValue();
+            if ("*".equals(value)) {
+                continue;
+            }
+            OpenDescriptor.Socket s = fd.socket();
+            boolean match = switch (e.getKey()) {
+                case "path" -> fd.kind() == OpenDescriptor.Kind.FILE && glob(value).matches(Path.of(fd.target()));
+                case "family" -> s != null && s.matchesFamily(value);
+                case "localAddress" -> s != null && s.local() != null && OpenDescriptor.sameAddress(value, s.local().getAddress());
+                case "localPort" -> s != null && s.local() != null && value.equals(Integer.toString(s.local().getPort()));
+                case "remoteAddress" -> s != null && s.remote() != null && OpenDescriptor.sameAddress(value, s.remote().getAddress());
+                case "remotePort" -> s != null && s.remote() != null && value.equals(Integer.toString(s.remote().getPort()));
+                // Unknown attributes never match so a typo doesn't silently widen a rule
+                default -> false;
+            };
+            if (!match) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static PathMatcher glob(String pattern) {
+        return FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+    }
+}
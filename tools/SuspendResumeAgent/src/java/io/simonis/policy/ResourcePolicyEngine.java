@@ -0,0 +1,251 @@
+package io.simonis.policy;
+
+import io.simonis.crac.CheckpointException;
+import io.simonis.crac.Context;
+import io.simonis.crac.Resource;
+import io.simonis.crac.RestoreException;
+import io.simonis.policy.ResourcePolicy.Action;
+import io.simonis.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A {@code Resource} which applies {@link ResourcePolicy} rules to the open file
+ * descriptors of the process. On checkpoint, all descriptors are enumerated from
+ * {@code /proc/self/fd} and the first matching rule decides if a descriptor is
+ * ignored, closed, reopened or fails the checkpoint. Descriptors which don't
+ * match any rule are ignored.
+ *
+ * <p>Descriptors which should be closed or reopened are replaced by {@code /dev/null}
+ * on checkpoint so their number stays reserved and the Java objects owning them
+ * keep a valid descriptor. Really closing them would allow the number to be reused
+ * by an unrelated file which the owner would then read, write or close. On restore, files are reopened at their old position
+ * and sockets are reconnected (or bound and listening again) in parallel, before
+ * being {@code dup2()}'ed back onto their original number. Only TCP and UDP sockets
+ * can be reopened, but not connections accepted by a listening socket of the process.
+ *
+ * <p>Standard streams, the files of the JDK and sockets on excluded local ports
+ * (e.g. the agent's control and metrics ports) are never touched.
+ */
+public class ResourcePolicyEngine implements Resource {
+
+    private static final Logger log = Logger.getLogger(ResourcePolicyEngine.class);
+
+    // All of these return 0 on success or -errno on failure
+    private static native int detach0(int fd);
+    private static native int reopenFile0(int fd, String path, int flags, long position);
+    private static native int reopenSocket0(int fd, boolean stream, boolean ipv6, byte[] local, int localPort,
+                                            byte[] remote, int remotePort, boolean listen, int flags, int timeoutMillis);
+
+    /**
+     * The time it took to apply an action to a descriptor.
+     *
+     * @param error the error message or {@code null} if the action succeeded
+     */
+    public record Timing(OpenDescriptor fd, Action action, String phase, long nanos, String error) {
+        @Override
+        public String toString() {
+            return String.format("%-8s %-6s %s in %.3fms%s", phase, action, fd, nanos / 1_000_000.0,
+                                 error == null ? "" : " failed: " + error);
+        }
+    }
+
+    private final List<ResourcePolicy> policies;
+    private final Set<Integer> excludedPorts;
+    private final int threads;
+    private final int timeoutMillis;
+    private final String javaHome = System.getProperty("java.home");
+    private List<OpenDescriptor> detached = List.of(); // guarded by this
+    private volatile List<Timing> timings = List.of();
+    private volatile long enumerationNanos;
+
+    /**
+     * @param policies the rules in the order they should be matched
+     * @param excludedPorts sockets bound to one of these local ports are never touched
+     * @param threads the maximum number of threads used to reconnect sockets
+     * @param timeoutMillis the connect timeout for reconnecting sockets
+     */
+    public ResourcePolicyEngine(List<ResourcePolicy> policies, Set<Integer> excludedPorts, int threads, int timeoutMillis) {
+        this.policies = List.copyOf(policies);
+        this.excludedPorts = Set.copyOf(excludedPorts);
+        this.threads = Math.max(1, threads);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    private boolean excluded(OpenDescriptor fd) {
+        if (fd.fd() <= 2) {
+            return true;
+        }
+        if (fd.kind() == OpenDescriptor.Kind.FILE) {
+            String path = fd.target();
+            return path.startsWith(javaHome) || path.startsWith("/proc/") || path.startsWith("/dev/");
+        }
+        OpenDescriptor.Socket s = fd.socket();
+        return s != null && s.local() != null && excludedPorts.contains(s.local().getPort());
+    }
+
+    private Action action(OpenDescriptor fd) {
+        for (ResourcePolicy p : policies) {
+            if (p.matches(fd)) {
+                return p.action();
+            }
+        }
+        return Action.IGNORE;
+    }
+
+    /**
+     * Files and TCP/UDP sockets can be reopened, except for connections accepted
+     * by a listening socket of this process because they can't be reconnected.
+     */
+    private static boolean reopenable(OpenDescriptor fd, Set<Integer> listeningPorts) {
+        OpenDescriptor.Socket s = fd.socket();
+        if (s == null) {
+            return fd.kind() == OpenDescriptor.Kind.FILE;
+        }
+        if (s.local() == null) {
+            return false;
+        }
+        if (!s.isStream() || s.listening()) {
+            return true;
+        }
+        return s.remote() != null && !listeningPorts.contains(s.local().getPort());
+    }
+
+    private static String errno(int result) {
+        return result == 0 ? null : "errno " + -result;
+    }
+
+    @Override
+    public synchronized void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+        long start = System.nanoTime();
+        List<OpenDescriptor> fds = OpenDescriptor.list();
+        enumerationNanos = System.nanoTime() - start;
+        HashSet<Integer> listeningPorts = new HashSet<>();
+        for (OpenDescriptor fd : fds) {
+            if (fd.socket() != null && fd.socket().listening() && fd.socket().local() != null) {
+                listeningPorts.add(fd.socket().local().getPort());
+            }
+        }
+        ArrayList<Timing> t = new ArrayList<>();
+        ArrayList<OpenDescriptor> reopen = new ArrayList<>();
+        CheckpointException ce = new CheckpointException();
+        for (OpenDescriptor fd : fds) {
+            if (excluded(fd)) {
+                continue;
+            }
+            Action action = action(fd);
+            long s = System.nanoTime();
+            String error = switch (action) {
+                case IGNORE -> null;
+                case ERROR -> "matched an 'error' policy";
+                case CLOSE -> errno(detach0(fd.fd()));
+                case REOPEN -> {
+                    if (!reopenable(fd, listeningPorts)) {
+                        yield "can't be reopened";
+                    }
+                    String e = errno(detach0(fd.fd()));
+                    if (e == null) {
+                        reopen.add(fd);
+                    }
+                    yield e;
+                }
+            };
+            if (action != Action.IGNORE) {
+                t.add(new Timing(fd, action, "suspend", System.nanoTime() - s, error));
+            }
+            if (error != null) {
+                ce.addSuppressed(new IllegalStateException(fd + ": " + error));
+            }
+        }
+        detached = reopen;
+        timings = t;
+        log.info("Applied resource policies to {} of {} descriptors in {}ms", t.size(), fds.size(),
+                 (System.nanoTime() - start) / 1_000_000);
+        if (ce.getSuppressed().length > 0) {
+            throw ce;
+        }
+    }
+
+    private Timing reopen(OpenDescriptor fd) {
+        long s = System.nanoTime();
+        int result;
+        OpenDescriptor.Socket socket = fd.socket();
+        if (socket == null) {
+            result = reopenFile0(fd.fd(), fd.target(), fd.flags(), fd.position());
+        } else {
+            result = reopenSocket0(fd.fd(), socket.isStream(), socket.protocol().endsWith("6"),
+                                   socket.local().getAddress().getAddress(), socket.local().getPort(),
+                                   socket.remote() == null ? null : socket.remote().getAddress().getAddress(),
+                                   socket.remote() == null ? 0 : socket.remote().getPort(),
+                                   socket.listening(), fd.flags(), timeoutMillis);
+        }
+        return new Timing(fd, Action.REOPEN, "resume", System.nanoTime() - s, errno(result));
+    }
+
+    @Override
+    public synchronized void afterRestore(Context<? extends Resource> context) throws Exception {
+        long start = System.nanoTime();
+        int reopened = detached.size();
+        List<Timing> t = Collections.synchronizedList(new ArrayList<>(timings));
+        ArrayList<OpenDescriptor> sockets = new ArrayList<>();
+        for (OpenDescriptor fd : detached) {
+            if (fd.socket() == null || fd.socket().listening() || !fd.socket().isStream()) {
+                // Reopening files, listening and UDP sockets is cheap, so we do it right away.
+                // This also ensures that listening sockets are ready before we reconnect to them.
+                t.add(reopen(fd));
+            } else {
+                sockets.add(fd);
+            }
+        }
+        if (!sockets.isEmpty()) {
+            // Reconnecting TCP sockets involves network round trips, so we do it in parallel
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, sockets.size()), r -> {
+                Thread thread = new Thread(r, "ResourcePolicyEngine");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                ArrayList<Future<Timing>> futures = new ArrayList<>();
+                for (OpenDescriptor fd : sockets) {
+                    futures.add(executor.submit(() -> reopen(fd)));
+                }
+                for (Future<Timing> f : futures) {
+                    t.add(f.get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+        detached = List.of();
+        timings = List.copyOf(t);
+        RestoreException re = new RestoreException();
+        for (Timing timing : t) {
+            if ("resume".equals(timing.phase()) && timing.error() != null) {
+                re.addSuppressed(new IllegalStateException(timing.fd() + ": " + timing.error()));
+            }
+        }
+        log.info("Reopened {} descriptors in {}ms", reopened, (System.nanoTime() - start) / 1_000_000);
+        if (re.getSuppressed().length > 0) {
+            throw re;
+        }
+    }
+
+    /**
+     * Returns a human readable report with the timings of the last checkpoint/restore.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Enumerated descriptors in ").append(enumerationNanos / 1_000).append("us\n");
+        for (Timing t : timings) {
+            sb.append(t).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package io.simonis.pool;
+
+import java.lang.reflect.Method;
+
+/**
+ * A {@code ConnectionPool} for an Apache Commons Pool 2 {@code ObjectPool}. The pool
+ * is accessed reflectively because the agent has no dependency on Commons Pool.
+ */
+class CommonsObjectPool implements ConnectionPool {
+
+    private final Object pool;
+
+    CommonsObjectPool(Object pool) {
+        this.pool = pool;
+    }
+
+    private Object invoke(String method, Object... args) throws ReflectiveOperationException {
+        for (Method m : pool.getClass().getMethods()) {
+            if (m.getName().equals(method) && m.getParameterCount() == args.length) {
+                return m.invoke(pool, args);
+            }
+        }
+        throw new NoSuchMethodException(pool.getClass().getName() + "." + method);
+    }
+
+    @Override
+    public void closeIdle() throws ReflectiveOperationException {
+        invoke("clear");
+    }
+
+    @Override
+    public int missing() {
+        try {
+            return Math.max(0, (Integer)invoke("getMinIdle") - (Integer)invoke("getNumIdle"));
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public AutoCloseable acquire() throws ReflectiveOperationException {
+        Object o = invoke("borrowObject");
+        return () -> invoke("returnObject", o);
+    }
+
+    @Override
+    public String toString() {
+        return pool.toString();
+    }
+}
@@ -0,0 +1,45 @@
+package io.simonis.pool;
+
+import javax.sql.DataSource;
+
+/**
+ * The operations a {@link PoolRefiller} needs to drain a connection pool before
+ * a checkpoint and to refill it after a restore.
+ */
+public interface ConnectionPool {
+
+    /**
+     * Closes the idle connections of the pool. Connections which are in use are left alone.
+     */
+    void closeIdle() throws Exception;
+
+    /**
+     * Returns the number of connections which are missing to reach the minimum size of the pool.
+     */
+    int missing();
+
+    /**
+     * Acquires a connection from the pool. The {@code PoolRefiller} holds all the connections
+     * it acquired until the pool is refilled, so the pool is forced to create new ones.
+     * Closing the returned handle returns the connection to the pool.
+     */
+    AutoCloseable acquire() throws Exception;
+
+    /**
+     * Creates a {@code ConnectionPool} for a pooling {@code DataSource}. Idle connections are
+     * evicted through the pool specific API (HikariCP, DBCP2 and c3p0 are supported reflectively).
+     *
+     * @param minIdle the number of connections to create after a restore
+     */
+    static ConnectionPool of(DataSource dataSource, int minIdle) {
+        return new DataSourcePool(dataSource, minIdle);
+    }
+
+    /**
+     * Creates a {@code ConnectionPool} for an Apache Commons Pool 2
+     * {@code org.apache.commons.pool2.ObjectPool}, e.g. a {@code GenericObjectPool}.
+     */
+    static ConnectionPool ofCommonsPool(Object objectPool) {
+        return new CommonsObjectPool(objectPool);
+    }
+}
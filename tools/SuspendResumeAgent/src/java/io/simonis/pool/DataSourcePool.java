@@ -0,0 +1,94 @@
+package io.simonis.pool;
+
+import java.lang.reflect.Method;
+import javax.sql.DataSource;
+
+/**
+ * A {@code ConnectionPool} for a pooling {@code DataSource}. The pool implementations are
+ * accessed reflectively because the agent has no dependency on them:
+ * <ul>
+ *   <li>HikariCP: {@code getHikariPoolMXBean().softEvictConnections()}</li>
+ *   <li>DBCP2: {@code restart()} (since 2.8.0), which closes the pool with its idle connections
+ *       and lazily creates a new one. Connections in use are closed when they are returned.</li>
+ *   <li>c3p0: {@code softResetAllUsers()}</li>
+ * </ul>
+ * The number of idle connections is taken from {@code getIdleConnections()} (HikariCP),
+ * {@code getNumIdle()} (DBCP2) or {@code getNumIdleConnections()} (c3p0).
+ */
+class DataSourcePool implements ConnectionPool {
+
+    private final DataSource dataSource;
+    private final int minIdle;
+
+    DataSourcePool(DataSource dataSource, int minIdle) {
+        this.dataSource = dataSource;
+        this.minIdle = minIdle;
+    }
+
+    private static Object invoke(Object o, String method) throws ReflectiveOperationException {
+        Method m = o.getClass().getMethod(method);
+        return m.invoke(o);
+    }
+
+    // Returns HikariCP's pool MXBean or null for other DataSources
+    private Object hikariPool() {
+        try {
+            return invoke(dataSource, "getHikariPoolMXBean");
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void closeIdle() throws ReflectiveOperationException {
+        Object hikari = hikariPool();
+        if (hikari != null) {
+            invoke(hikari, "softEvictConnections");
+            return;
+        }
+        // DBCP2's evict() only closes connections which exceed the idle timeout
+        for (String method : new String[] { "restart", "softResetAllUsers" }) {
+            try {
+                invoke(dataSource, method);
+                return;
+            } catch (NoSuchMethodException nsme) {}
+        }
+        throw new UnsupportedOperationException("Can't close idle connections of " + dataSource);
+    }
+
+    // Returns the number of idle connections or 0 if the pool doesn't report it
+    private int idleConnections() {
+        Object hikari = hikariPool();
+        if (hikari != null) {
+            try {
+                return (Integer)invoke(hikari, "getIdleConnections");
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                return 0;
+            }
+        }
+        for (String method : new String[] { "getNumIdle", "getNumIdleConnections" }) {
+            try {
+                return (Integer)invoke(dataSource, method);
+            } catch (NoSuchMethodException nsme) {
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public int missing() {
+        return Math.max(0, minIdle - idleConnections());
+    }
+
+    @Override
+    public AutoCloseable acquire() throws Exception {
+        return dataSource.getConnection();
+    }
+
+    @Override
+    public String toString() {
+        return dataSource.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package io.simonis.pool;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@code ConnectionPool} for the connections of a {@code java.net.http.HttpClient}.
+ *
+ * <p>{@code HttpClient} has no API to close its idle connections, so the client is
+ * replaced by a new one (built from the same builder) before a checkpoint and the old
+ * one is shut down if the JDK supports it (JDK 21+). Shutting down doesn't wait for
+ * requests which are still in flight on the old client but the old client doesn't
+ * accept new ones. After a restore, the connections are re-established by sending
+ * {@code HEAD} requests to the given URIs. Users must therefore always get the current
+ * client from {@link #client()} instead of caching it.
+ *
+ * <p>Can be run standalone (e.g. {@code java -cp SuspendResumeAgent.jar io.simonis.pool.HttpClientPool})
+ * to drain and refill a pool against a local stand-in server.
+ */
+public class HttpClientPool implements ConnectionPool {
+
+    private final HttpClient.Builder builder;
+    private final List<URI> uris;
+    private final int connectionsPerUri;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile HttpClient client;
+    private volatile boolean drained;
+
+    /**
+     * @param uris the URIs to connect to after a restore
+     * @param connectionsPerUri the number of concurrent requests sent to every URI (HTTP/1.1
+     *        opens one connection per concurrent request, HTTP/2 multiplexes them)
+     */
+    public HttpClientPool(HttpClient.Builder builder, List<URI> uris, int connectionsPerUri) {
+        this.builder = builder;
+        this.uris = List.copyOf(uris);
+        this.connectionsPerUri = connectionsPerUri;
+        this.client = builder.build();
+    }
+
+    public HttpClient client() {
+        return client;
+    }
+
+    @Override
+    public void closeIdle() {
+        HttpClient old = client;
+        client = builder.build();
+        drained = true;
+        try {
+            // close() would block until all the requests of the old client have completed
+            HttpClient.class.getMethod("shutdown").invoke(old);
+        } catch (ReflectiveOperationException e) {
+            // Not available before JDK 21, the idle connections will be closed by the GC
+        }
+    }
+
+    @Override
+    public int missing() {
+        return drained ? uris.size() * connectionsPerUri : 0;
+    }
+
+    @Override
+    public AutoCloseable acquire() throws Exception {
+        drained = false;
+        URI uri = uris.get(Math.floorMod(next.getAndIncrement(), uris.size()));
+        HttpRequest request = HttpRequest.newBuilder(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        client.send(request, HttpResponse.BodyHandlers.discarding());
+        // The connection is returned to the client's pool once the response was received
+        return () -> {};
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClientPool" + uris;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // A stand-in server which records the client port of every connection
+        Set<Integer> connections = ConcurrentHashMap.newKeySet();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                connections.add(exchange.getRemoteAddress().getPort());
+                // Keep the request in flight a bit so concurrent requests need their own connection
+                Thread.sleep(50);
+                exchange.sendResponseHeaders(200, -1);
+            } catch (InterruptedException ie) {}
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        try {
+            URI uri = URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+            HttpClientPool pool = new HttpClientPool(HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1), List.of(uri), 4);
+            PoolRefiller refiller = new PoolRefiller(pool, 4);
+            HttpClient old = pool.client();
+            refiller.beforeCheckpoint(null);
+            System.out.println("Drained: client replaced=" + (old != pool.client()) + " missing=" + pool.missing());
+            refiller.afterRestore(null);
+            System.out.println("Refilled: connections=" + connections.size() + " missing=" + pool.missing());
+        } finally {
+            server.stop(0);
+            ((ExecutorService)server.getExecutor()).shutdownNow();
+        }
+    }
+}
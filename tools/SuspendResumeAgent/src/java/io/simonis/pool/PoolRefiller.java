@@ -0,0 +1,106 @@
+package io.simonis.pool;
+
+import io.simonis.crac.Context;
+import io.simonis.crac.Core;
+import io.simonis.crac.Resource;
+import io.simonis.crac.RestoreException;
+import io.simonis.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A {@code Resource} which closes the idle connections of a {@link ConnectionPool}
+ * before a checkpoint and refills the pool to its minimum size after a restore.
+ * The missing connections are created concurrently by at most {@code parallelism}
+ * threads, so the application doesn't have to wait for them to be created serially
+ * (or lazily on the first requests).
+ *
+ * <p>Like every other {@code Resource}, a refiller is only weakly referenced by its
+ * {@code Context} and must be kept alive by the caller (e.g. next to the pool).
+ */
+public class PoolRefiller implements Resource {
+
+    private static final Logger log = Logger.getLogger(PoolRefiller.class);
+
+    private final ConnectionPool pool;
+    private final int parallelism;
+
+    public PoolRefiller(ConnectionPool pool, int parallelism) {
+        this.pool = pool;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Creates a {@code PoolRefiller} and registers it with the {@code FRAMEWORK} {@code Context}
+     * so the pools are refilled before the application {@code Resource}s are restored.
+     *
+     * @return the new {@code PoolRefiller} which has to be kept alive by the caller
+     */
+    public static PoolRefiller register(ConnectionPool pool, int parallelism) {
+        PoolRefiller refiller = new PoolRefiller(pool, parallelism);
+        Core.getContext(Core.Priority.FRAMEWORK).register(refiller);
+        return refiller;
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+        long start = System.nanoTime();
+        pool.closeIdle();
+        log.info("Closed idle connections of {} in {}ms", pool, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) throws Exception {
+        int missing = pool.missing();
+        if (missing <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, missing), r -> {
+            Thread thread = new Thread(r, "PoolRefiller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayList<Future<AutoCloseable>> futures = new ArrayList<>();
+        List<AutoCloseable> acquired = new ArrayList<>();
+        RestoreException re = new RestoreException();
+        try {
+            for (int i = 0; i < missing; i++) {
+                futures.add(executor.submit(pool::acquire));
+            }
+            // All connections are held until every one of them was created, otherwise the
+            // pool would just hand out the same connection again and again.
+            for (Future<AutoCloseable> f : futures) {
+                try {
+                    acquired.add(f.get());
+                } catch (ExecutionException ee) {
+                    re.addSuppressed(ee.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+            for (AutoCloseable c : acquired) {
+                try {
+                    c.close();
+                } catch (Exception e) {
+                    re.addSuppressed(e);
+                }
+            }
+        }
+        log.info("Refilled {} with {} of {} connections in {}ms", pool, acquired.size(), missing,
+                 (System.nanoTime() - start) / 1_000_000);
+        if (re.getSuppressed().length > 0) {
+            throw re;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PoolRefiller(" + pool + ")";
+    }
+}
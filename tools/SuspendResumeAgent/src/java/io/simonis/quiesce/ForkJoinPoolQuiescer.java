@@ -0,0 +1,43 @@
+package io.simonis.quiesce;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quiesces a {@code ForkJoinPool} by waiting until it has no more running or
+ * queued tasks. A {@code ForkJoinPool} can't stop accepting work without being
+ * shut down, so tasks which are submitted while waiting will still be executed.
+ */
+class ForkJoinPoolQuiescer implements Quiescer {
+
+    private final ForkJoinPool pool;
+
+    ForkJoinPoolQuiescer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void stopAccepting() {
+    }
+
+    @Override
+    public int awaitDrained(long deadline) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (pool.awaitQuiescence(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            return 0;
+        }
+        long tasks = pool.getActiveThreadCount() + pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+        return (int)Math.min(Integer.MAX_VALUE, tasks);
+    }
+
+    @Override
+    public void resume() {
+    }
+
+    @Override
+    public String toString() {
+        return pool.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(pool));
+    }
+}
@@ -0,0 +1,103 @@
+package io.simonis.quiesce;
+
+import io.simonis.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Registry for {@link Quiescer}s which are quiesced by the agent before
+ * the threads get suspended and resumed after the restore notification.
+ */
+public class Quiescence {
+
+    private static final Logger log = Logger.getLogger(Quiescence.class);
+
+    private static final CopyOnWriteArrayList<Quiescer> quiescers = new CopyOnWriteArrayList<>();
+
+    /**
+     * The outcome of quiescing a single {@code Quiescer}.
+     *
+     * @param quiescer the name of the quiescer
+     * @param drainNanos the time it took to drain the quiescer
+     * @param leftover the number of tasks which were still in flight at the deadline
+     */
+    public record Result(String quiescer, long drainNanos, int leftover) {
+        @Override
+        public String toString() {
+            return "Quiesced " + quiescer + " in " + drainNanos / 1_000_000 + "ms (" + leftover + " leftover tasks)";
+        }
+    }
+
+    public static void register(Quiescer quiescer) {
+        log.info("Registering quiescer {}", quiescer);
+        quiescers.add(quiescer);
+    }
+
+    public static void unregister(Quiescer quiescer) {
+        quiescers.remove(quiescer);
+    }
+
+    /**
+     * Stops all registered quiescers from accepting new work and waits until they
+     * have drained their work in flight or until {@code timeoutNanos} has passed.
+     *
+     * @return a {@code Result} for every registered quiescer
+     */
+    public static List<Result> quiesce(long timeoutNanos) {
+        long start = System.nanoTime();
+        long deadline = start + timeoutNanos;
+        ArrayList<Result> results = new ArrayList<>(quiescers.size());
+        for (Quiescer q : quiescers) {
+            try {
+                q.stopAccepting();
+            } catch (RuntimeException e) {
+                log.warn("Can't stop {}:", q, e);
+            }
+        }
+        for (Quiescer q : quiescers) {
+            int leftover;
+            try {
+                leftover = q.awaitDrained(deadline);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                leftover = -1;
+            } catch (RuntimeException e) {
+                log.warn("Can't drain {}:", q, e);
+                leftover = -1;
+            }
+            Result r = new Result(q.toString(), System.nanoTime() - start, leftover);
+            log.info("{}", r);
+            results.add(r);
+        }
+        return results;
+    }
+
+    /**
+     * Sets the core and maximum pool size of {@code executor}. If the executor is currently
+     * quiesced, the new sizes replace the ones which are restored by {@link #resume()}.
+     */
+    public static void setPoolSizes(ThreadPoolExecutor executor, int core, int max) {
+        for (Quiescer q : quiescers) {
+            if (q instanceof ThreadPoolExecutorQuiescer tpeq && tpeq.deferPoolSizes(executor, core, max)) {
+                return;
+            }
+        }
+        ThreadPoolExecutorQuiescer.setPoolSizes(executor, core, max);
+    }
+
+    /**
+     * Lets all registered quiescers accept work again.
+     */
+    public static void resume() {
+        for (Quiescer q : quiescers) {
+            try {
+                q.resume();
+            } catch (RuntimeException e) {
+                log.warn("Can't resume {}:", q, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package io.simonis.quiesce;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Cooperatively quiesces a source of work (e.g. an executor or a server)
+ * before the threads of the VM get suspended, so no task is frozen in the
+ * middle of its execution.
+ *
+ * <p>Quiescing happens in two phases so that all the registered quiescers can
+ * drain concurrently: first {@link #stopAccepting()} is called for all of them,
+ * then {@link #awaitDrained(long)} with a common deadline.
+ */
+public interface Quiescer {
+
+    /**
+     * Stops starting new work. Must not block.
+     */
+    void stopAccepting();
+
+    /**
+     * Waits until all the work in flight has finished or the deadline has passed.
+     *
+     * @param deadline the deadline in terms of {@code System.nanoTime()}
+     * @return the number of tasks which are still in flight
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    int awaitDrained(long deadline) throws InterruptedException;
+
+    /**
+     * Starts accepting work again.
+     */
+    void resume();
+
+    static Quiescer of(ThreadPoolExecutor executor) {
+        return new ThreadPoolExecutorQuiescer(executor);
+    }
+
+    static Quiescer of(ForkJoinPool pool) {
+        return new ForkJoinPoolQuiescer(pool);
+    }
+
+    /**
+     * Creates a {@code Quiescer} for an {@code org.apache.catalina.connector.Connector}.
+     */
+    static Quiescer ofTomcatConnector(Object connector) {
+        return new TomcatConnectorQuiescer(connector);
+    }
+}
@@ -0,0 +1,128 @@
+package io.simonis.quiesce;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Quiesces a {@code ThreadPoolExecutor} by parking all of its worker threads on
+ * barrier tasks. The barriers are queued behind the already queued tasks, so the
+ * queue is drained first. The pool can't grow while it is quiesced, so tasks
+ * submitted after {@code stopAccepting()} are either queued behind the barriers
+ * or rejected if the queue is full.
+ */
+class ThreadPoolExecutorQuiescer implements Quiescer {
+
+    private final ThreadPoolExecutor executor;
+    private int maximumPoolSize;
+    // The temporary maximum pool size while quiesced
+    private int quiescedMaximumPoolSize;
+    // The core pool size set with setPoolSizes() while quiesced or -1
+    private int corePoolSize = -1;
+    private int workers;
+    private int queued;
+    private AtomicInteger arrived;
+    private CountDownLatch release;
+
+    ThreadPoolExecutorQuiescer(ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    private final class Barrier implements Runnable {
+        private final AtomicInteger arrived = ThreadPoolExecutorQuiescer.this.arrived;
+        private final CountDownLatch release = ThreadPoolExecutorQuiescer.this.release;
+
+        @Override
+        public void run() {
+            arrived.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException ie) {
+                // The executor is shutting down
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void stopAccepting() {
+        arrived = new AtomicInteger();
+        release = new CountDownLatch(1);
+        executor.prestartAllCoreThreads();
+        maximumPoolSize = executor.getMaximumPoolSize();
+        workers = Math.max(executor.getCorePoolSize(), executor.getPoolSize());
+        corePoolSize = -1;
+        quiescedMaximumPoolSize = Math.max(1, workers);
+        executor.setMaximumPoolSize(quiescedMaximumPoolSize);
+        workers = executor.getPoolSize();
+        queued = 0;
+        while (queued < workers && executor.getQueue().offer(new Barrier())) {
+            queued++;
+        }
+    }
+
+    @Override
+    public int awaitDrained(long deadline) throws InterruptedException {
+        // Queue the remaining barriers if the queue was full
+        while (queued < workers) {
+            long timeout = deadline - System.nanoTime();
+            if (timeout <= 0 || !executor.getQueue().offer(new Barrier(), timeout, TimeUnit.NANOSECONDS)) {
+                break;
+            }
+            queued++;
+        }
+        while (arrived.get() < workers && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        return workers - arrived.get();
+    }
+
+    @Override
+    public void resume() {
+        if (release == null) {
+            return;
+        }
+        // Release the workers first, so they can't stay parked if restoring the maximum fails
+        release.countDown();
+        release = null;
+        executor.getQueue().removeIf(r -> r instanceof Barrier);
+        if (corePoolSize >= 0) {
+            setPoolSizes(executor, corePoolSize, maximumPoolSize);
+        } else if (executor.getMaximumPoolSize() == quiescedMaximumPoolSize) {
+            // Don't overwrite a maximum which was changed directly while the pool was quiesced
+            executor.setMaximumPoolSize(Math.max(maximumPoolSize, executor.getCorePoolSize()));
+        }
+    }
+
+    /**
+     * Sets the pool sizes of {@code executor} if it is quiesced by this quiescer. The
+     * sizes are only applied by {@link #resume()}, so the pool can't grow while quiesced.
+     *
+     * @return false if {@code executor} isn't currently quiesced by this quiescer
+     */
+    boolean deferPoolSizes(ThreadPoolExecutor executor, int core, int max) {
+        if (executor != this.executor || release == null) {
+            return false;
+        }
+        corePoolSize = core;
+        maximumPoolSize = max;
+        return true;
+    }
+
+    static void setPoolSizes(ThreadPoolExecutor executor, int core, int max) {
+        // The core size must never exceed the maximum size, so the order matters.
+        if (core > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(max);
+            executor.setCorePoolSize(core);
+        } else {
+            executor.setCorePoolSize(core);
+            executor.setMaximumPoolSize(max);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return executor.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(executor));
+    }
+}
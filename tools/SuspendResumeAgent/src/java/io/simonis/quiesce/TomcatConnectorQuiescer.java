@@ -0,0 +1,64 @@
+package io.simonis.quiesce;
+
+import java.lang.reflect.Method;
+
+/**
+ * Quiesces a Tomcat {@code org.apache.catalina.connector.Connector}. The connector
+ * is paused so it stops processing new requests and then we wait until the executor
+ * of its protocol handler has no more active threads. Tomcat is accessed reflectively
+ * because the agent has no dependency on it.
+ */
+class TomcatConnectorQuiescer implements Quiescer {
+
+    private final Object connector;
+
+    TomcatConnectorQuiescer(Object connector) {
+        this.connector = connector;
+    }
+
+    private static Object invoke(Object o, String method) throws ReflectiveOperationException {
+        Method m = o.getClass().getMethod(method);
+        return m.invoke(o);
+    }
+
+    private int activeCount() {
+        try {
+            Object executor = invoke(invoke(connector, "getProtocolHandler"), "getExecutor");
+            return executor == null ? 0 : (Integer)invoke(executor, "getActiveCount");
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void stopAccepting() {
+        try {
+            invoke(connector, "pause");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't pause " + connector, e);
+        }
+    }
+
+    @Override
+    public int awaitDrained(long deadline) throws InterruptedException {
+        int active;
+        while ((active = activeCount()) > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        return active;
+    }
+
+    @Override
+    public void resume() {
+        try {
+            invoke(connector, "resume");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't resume " + connector, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return connector.toString();
+    }
+}
@@ -0,0 +1,71 @@
+package io.simonis.readiness;
+
+import io.simonis.utils.CompileQueue;
+import io.simonis.utils.MemoryStats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Cheap live estimates of how large and how expensive a snapshot taken right now would be.
+ * The host can poll them to pick a moment with little garbage, few dirty pages and an empty
+ * compile queue.
+ *
+ * @param heapUsed the used heap in bytes
+ * @param heapCommitted the committed heap in bytes
+ * @param garbage an upper bound for the garbage allocated since the last GC in bytes (the
+ *        heap usage above the usage after the last collection of every heap pool)
+ * @param codeCache the used code cache in bytes
+ * @param metaspace the used metaspace (including the compressed class space) in bytes
+ * @param rss the resident set size in bytes
+ * @param dirty the private dirty and anonymous memory of the process in bytes, which
+ *        has to end up in the snapshot (from {@code /proc/self/smaps_rollup})
+ * @param compileQueue the number of queued and running compilations or -1 if unknown
+ */
+public record Readiness(long heapUsed, long heapCommitted, long garbage, long codeCache, long metaspace,
+                        long rss, long dirty, int compileQueue) {
+
+    /**
+     * Returns the memory a full GC and heap shrink would probably free before a snapshot.
+     */
+    public long reclaimable() {
+        return garbage + (heapCommitted - heapUsed);
+    }
+
+    public static Readiness estimate() {
+        long heapUsed = 0, heapCommitted = 0, garbage = 0, metaspace = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getUsage();
+            if (pool.getType() == MemoryType.HEAP) {
+                heapUsed += usage.getUsed();
+                heapCommitted += usage.getCommitted();
+                MemoryUsage afterGC = pool.getCollectionUsage();
+                garbage += Math.max(0, usage.getUsed() - (afterGC == null ? 0 : afterGC.getUsed()));
+            } else if (pool.getName().equals("Metaspace")) {
+                // "Compressed Class Space" is part of "Metaspace"
+                metaspace += usage.getUsed();
+            }
+        }
+        long[] smaps = MemoryStats.readKb("/proc/self/smaps_rollup", "Rss", "Private_Dirty", "Anonymous");
+        // Anonymous memory is in the snapshot even if clean (e.g. zero pages which were only read)
+        long dirty = Math.max(smaps[1], smaps[2]);
+        return new Readiness(heapUsed, heapCommitted, garbage, MemoryStats.codeCache().getUsed(), metaspace,
+                             smaps[0], dirty, CompileQueue.depth());
+    }
+
+    @Override
+    public String toString() {
+        return "heap_used: " + heapUsed / 1024 + "kb\n" +
+            "heap_committed: " + heapCommitted / 1024 + "kb\n" +
+            "garbage_since_gc: " + garbage / 1024 + "kb\n" +
+            "reclaimable: " + reclaimable() / 1024 + "kb\n" +
+            "code_cache: " + codeCache / 1024 + "kb\n" +
+            "metaspace: " + metaspace / 1024 + "kb\n" +
+            "rss: " + (rss < 0 ? "unknown" : rss / 1024 + "kb") + "\n" +
+            "dirty: " + (dirty < 0 ? "unknown" : dirty / 1024 + "kb") + "\n" +
+            "compile_queue: " + (compileQueue < 0 ? "unknown" : compileQueue) + "\n" +
+            "jit_idle: " + (compileQueue < 0 ? "unknown" : compileQueue == 0);
+    }
+}
@@ -0,0 +1,46 @@
+package io.simonis.resize;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Scales the parallelism of a {@code ForkJoinPool}. {@code ForkJoinPool::setParallelism()}
+ * only exists since JDK 19, so on older JDKs the pool can't be resized and we only log
+ * a warning. The parallelism of the common pool can't be changed at all.
+ */
+class ForkJoinPoolResizer extends PoolResizer {
+
+    private static final Method setParallelism;
+    static {
+        Method m = null;
+        try {
+            m = ForkJoinPool.class.getMethod("setParallelism", int.class);
+        } catch (NoSuchMethodException e) {}
+        setParallelism = m;
+    }
+
+    private final ForkJoinPool pool;
+    private final int baseParallelism;
+
+    ForkJoinPoolResizer(ForkJoinPool pool, Sizing sizing) {
+        super(sizing);
+        this.pool = pool;
+        this.baseParallelism = pool.getParallelism();
+    }
+
+    @Override
+    protected void resize(Machine now) throws ReflectiveOperationException {
+        int parallelism = size(baseParallelism);
+        if (setParallelism == null || pool == ForkJoinPool.commonPool()) {
+            log.warn("Can't resize {} to parallelism={}", this, parallelism);
+            return;
+        }
+        int old = (Integer)setParallelism.invoke(pool, parallelism);
+        log.info("Resized {} from parallelism={} to {}", this, old, parallelism);
+    }
+
+    @Override
+    public String toString() {
+        return pool.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(pool));
+    }
+}
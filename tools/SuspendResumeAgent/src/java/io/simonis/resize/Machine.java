@@ -0,0 +1,26 @@
+package io.simonis.resize;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The resources of the (virtual) machine the VM is currently running on.
+ *
+ * @param processors the number of available processors
+ * @param physicalMemory the total physical memory in bytes or -1 if unknown
+ * @param maxHeap the maximum heap size in bytes
+ */
+public record Machine(int processors, long physicalMemory, long maxHeap) {
+
+    public static Machine current() {
+        long physical = -1;
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            physical = os.getTotalMemorySize();
+        }
+        return new Machine(Runtime.getRuntime().availableProcessors(), physical, Runtime.getRuntime().maxMemory());
+    }
+
+    @Override
+    public String toString() {
+        return processors + " cpus, " + (physicalMemory >> 20) + "mb memory, " + (maxHeap >> 20) + "mb max heap";
+    }
+}
@@ -0,0 +1,114 @@
+package io.simonis.resize;
+
+import io.simonis.crac.Context;
+import io.simonis.crac.Core;
+import io.simonis.crac.Resource;
+import io.simonis.utils.Logger;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * A {@code Resource} which resizes a thread pool after a restore if the snapshot was
+ * restored on a machine with a different number of processors (or amount of memory)
+ * than the one it was created on.
+ *
+ * <p>The sizes of the pool are captured together with the current {@link Machine}
+ * when the resizer is created and every resize is computed from these base values
+ * so repeated restores on different machines don't accumulate rounding errors.
+ * Like every other {@code Resource}, a resizer is only weakly referenced by its
+ * {@code Context} and must be kept alive by the caller (e.g. next to the pool).
+ */
+public abstract class PoolResizer implements Resource {
+
+    /**
+     * Computes the new size of a pool.
+     */
+    @FunctionalInterface
+    public interface Sizing {
+        /**
+         * @param size the size of the pool on the {@code base} machine
+         * @param base the machine the pool was sized for
+         * @param now the machine we are restored on
+         * @return the new size of the pool
+         */
+        int size(int size, Machine base, Machine now);
+
+        /** Scales the size linearly with the number of processors. */
+        Sizing PROPORTIONAL = (size, base, now) ->
+            (int)Math.max(1, Math.min(Integer.MAX_VALUE, Math.round((double)size * now.processors() / base.processors())));
+    }
+
+    protected final Logger log = Logger.getLogger(getClass());
+    protected final Machine base;
+    protected final Sizing sizing;
+    private Machine current;
+
+    protected PoolResizer(Sizing sizing) {
+        this.base = Machine.current();
+        this.current = base;
+        this.sizing = sizing;
+    }
+
+    /**
+     * Resizes the pool for the machine {@code now}.
+     */
+    protected abstract void resize(Machine now) throws Exception;
+
+    protected int size(int size) {
+        return sizing.size(size, base, current);
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+    }
+
+    @Override
+    public synchronized void afterRestore(Context<? extends Resource> context) throws Exception {
+        Machine now = Machine.current();
+        if (!now.equals(current)) {
+            log.info("Resizing {} for {} (was {})", this, now, current);
+            current = now;
+            resize(now);
+        }
+    }
+
+    public static PoolResizer of(ThreadPoolExecutor executor) {
+        return of(executor, Sizing.PROPORTIONAL);
+    }
+
+    public static PoolResizer of(ThreadPoolExecutor executor, Sizing sizing) {
+        return new ThreadPoolExecutorResizer(executor, sizing);
+    }
+
+    public static PoolResizer of(ForkJoinPool pool) {
+        return of(pool, Sizing.PROPORTIONAL);
+    }
+
+    public static PoolResizer of(ForkJoinPool pool, Sizing sizing) {
+        return new ForkJoinPoolResizer(pool, sizing);
+    }
+
+    /**
+     * Creates a {@code PoolResizer} for the worker threads of an
+     * {@code org.apache.catalina.connector.Connector}.
+     */
+    public static PoolResizer ofTomcatConnector(Object connector) {
+        return ofTomcatConnector(connector, Sizing.PROPORTIONAL);
+    }
+
+    public static PoolResizer ofTomcatConnector(Object connector, Sizing sizing) {
+        return new TomcatConnectorResizer(connector, sizing);
+    }
+
+    /**
+     * Registers {@code resizer} with the {@code FRAMEWORK} {@code Context} so it is
+     * restored before the application {@code Resource}s start submitting work.
+     *
+     * @return {@code resizer} which has to be kept alive by the caller
+     */
+    public static PoolResizer register(PoolResizer resizer) {
+        Core.getContext(Core.Priority.FRAMEWORK).register(resizer);
+        return resizer;
+    }
+}
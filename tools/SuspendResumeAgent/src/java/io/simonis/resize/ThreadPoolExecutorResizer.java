@@ -0,0 +1,36 @@
+package io.simonis.resize;
+
+import io.simonis.quiesce.Quiescence;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Scales the core and (if bounded) the maximum pool size of a {@code ThreadPoolExecutor}.
+ */
+class ThreadPoolExecutorResizer extends PoolResizer {
+
+    private final ThreadPoolExecutor executor;
+    private final int baseCore, baseMax;
+
+    ThreadPoolExecutorResizer(ThreadPoolExecutor executor, Sizing sizing) {
+        super(sizing);
+        this.executor = executor;
+        this.baseCore = executor.getCorePoolSize();
+        this.baseMax = executor.getMaximumPoolSize();
+    }
+
+    @Override
+    protected void resize(Machine now) {
+        int core = baseCore == 0 ? 0 : size(baseCore);
+        int max = baseMax == Integer.MAX_VALUE ? baseMax : Math.max(core, size(baseMax));
+        // If the executor is quiesced, its current maximum is only temporary and the
+        // new sizes are applied when the quiescer resumes it
+        Quiescence.setPoolSizes(executor, core, max);
+        log.info("Resized {} to core={} max={}", this, core, max);
+    }
+
+    @Override
+    public String toString() {
+        return executor.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(executor));
+    }
+}
@@ -0,0 +1,57 @@
+package io.simonis.resize;
+
+import java.lang.reflect.Method;
+
+/**
+ * Scales the {@code maxThreads} and {@code minSpareThreads} of the protocol handler of a
+ * Tomcat {@code org.apache.catalina.connector.Connector}. The protocol handler propagates
+ * them to its internal executor. Tomcat is accessed reflectively because the agent
+ * has no dependency on it.
+ */
+class TomcatConnectorResizer extends PoolResizer {
+
+    private final Object connector;
+    private final int baseMaxThreads, baseMinSpareThreads;
+
+    TomcatConnectorResizer(Object connector, Sizing sizing) {
+        super(sizing);
+        this.connector = connector;
+        try {
+            Object handler = protocolHandler();
+            this.baseMaxThreads = (Integer)invoke(handler, "getMaxThreads");
+            this.baseMinSpareThreads = (Integer)invoke(handler, "getMinSpareThreads");
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Can't resize " + connector, e);
+        }
+    }
+
+    private static Object invoke(Object o, String method) throws ReflectiveOperationException {
+        Method m = o.getClass().getMethod(method);
+        return m.invoke(o);
+    }
+
+    private Object protocolHandler() throws ReflectiveOperationException {
+        return invoke(connector, "getProtocolHandler");
+    }
+
+    @Override
+    protected void resize(Machine now) throws ReflectiveOperationException {
+        int maxThreads = size(baseMaxThreads);
+        int minSpareThreads = Math.min(maxThreads, size(baseMinSpareThreads));
+        Object handler = protocolHandler();
+        // Tomcat ignores (and logs) a minSpareThreads value larger than maxThreads, so the order matters.
+        if (maxThreads >= (Integer)invoke(handler, "getMaxThreads")) {
+            handler.getClass().getMethod("setMaxThreads", int.class).invoke(handler, maxThreads);
+            handler.getClass().getMethod("setMinSpareThreads", int.class).invoke(handler, minSpareThreads);
+        } else {
+            handler.getClass().getMethod("setMinSpareThreads", int.class).invoke(handler, minSpareThreads);
+            handler.getClass().getMethod("setMaxThreads", int.class).invoke(handler, maxThreads);
+        }
+        log.info("Resized {} to maxThreads={} minSpareThreads={}", this, maxThreads, minSpareThreads);
+    }
+
+    @Override
+    public String toString() {
+        return connector.toString();
+    }
+}
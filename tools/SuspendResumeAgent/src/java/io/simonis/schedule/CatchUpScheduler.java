@@ -0,0 +1,286 @@
+package io.simonis.schedule;
+
+import io.simonis.crac.Context;
+import io.simonis.crac.Core;
+import io.simonis.crac.Resource;
+import io.simonis.utils.Logger;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@code ScheduledExecutorService} which avoids the thundering herd of scheduled
+ * tasks after a restore.
+ *
+ * <p>All the tasks which became due while the VM was suspended are rescheduled
+ * with a random delay of up to {@code maxJitter} (or the period of a periodic task
+ * if that is smaller). In contrast to {@code ScheduledThreadPoolExecutor}, overdue
+ * runs of fixed-rate tasks are coalesced into a single run instead of being executed
+ * back to back. All other methods are forwarded to the wrapped executor.
+ *
+ * <p>Because the threads of the VM are resumed before the restore notifications are
+ * sent, tasks which become due after the checkpoint don't run before they were caught
+ * up. They are rescheduled by the catch-up instead.
+ */
+public class CatchUpScheduler implements ScheduledExecutorService, DowntimeAware {
+
+    private static final Logger log = Logger.getLogger(CatchUpScheduler.class);
+
+    private final ScheduledExecutorService delegate;
+    private final long maxJitterNanos;
+    private final Set<Task<?>> tasks = ConcurrentHashMap.newKeySet();
+    // Incremented on every checkpoint. Tasks only run if they were caught up after the last one.
+    private volatile long checkpoints;
+
+    private CatchUpScheduler(ScheduledExecutorService delegate, long maxJitter, TimeUnit unit) {
+        this.delegate = delegate;
+        this.maxJitterNanos = unit.toNanos(maxJitter);
+    }
+
+    /**
+     * Wraps {@code delegate} and registers the wrapper with the {@code FRAMEWORK}
+     * {@code Context}. The wrapper has to be kept alive by the caller.
+     */
+    public static CatchUpScheduler wrap(ScheduledExecutorService delegate, long maxJitter, TimeUnit unit) {
+        CatchUpScheduler scheduler = new CatchUpScheduler(delegate, maxJitter, unit);
+        Core.getContext(Core.Priority.FRAMEWORK).register(scheduler);
+        return scheduler;
+    }
+
+    private final class Task<V> extends FutureTask<V> implements ScheduledFuture<V> {
+        // > 0 for fixed-rate, < 0 for fixed-delay and 0 for one-shot tasks
+        private final long period;
+        private long due; // in terms of System.nanoTime(), guarded by this
+        private boolean running; // guarded by this
+        private Future<?> pending; // guarded by this
+        private long caughtUp = checkpoints; // guarded by this
+
+        Task(Callable<V> callable, long delay, long period) {
+            super(callable);
+            this.period = period;
+            this.due = System.nanoTime() + delay;
+        }
+
+        Task(Runnable runnable, long delay, long period) {
+            super(runnable, null);
+            this.period = period;
+            this.due = System.nanoTime() + delay;
+        }
+
+        synchronized void schedule(long delay) {
+            due = System.nanoTime() + delay;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            try {
+                pending = delegate.schedule(this, delay, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ree) {
+                super.cancel(false);
+                tasks.remove(this);
+            }
+        }
+
+        /**
+         * Reschedules the task after a restore if it became due while the VM was suspended.
+         */
+        synchronized void catchUp(Downtime downtime, long checkpoint) {
+            caughtUp = checkpoint;
+            if (running || isDone()) {
+                // A running task reschedules itself when it's finished.
+                return;
+            }
+            long remaining = due - System.nanoTime() - downtime.skewNanos();
+            long jitter = period == 0 ? maxJitterNanos : Math.min(maxJitterNanos, Math.abs(period));
+            schedule(remaining > 0 ? remaining : ThreadLocalRandom.current().nextLong(Math.max(1, jitter)));
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isDone() || caughtUp != checkpoints) {
+                    // Overdue after a restore, catchUp() will reschedule us.
+                    return;
+                }
+                running = true;
+            }
+            if (period == 0) {
+                super.run();
+                tasks.remove(this);
+                return;
+            }
+            boolean again = runAndReset();
+            synchronized (this) {
+                running = false;
+                if (!again) {
+                    tasks.remove(this);
+                    return;
+                }
+                long now = System.nanoTime();
+                if (period > 0) {
+                    // Coalesce all the missed runs into the one we just did
+                    long next = due + period;
+                    schedule(next > now ? next - now : 0);
+                } else {
+                    schedule(-period);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            synchronized (this) {
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+            }
+            tasks.remove(this);
+            return cancelled;
+        }
+
+        @Override
+        public synchronized long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private <V> Task<V> submit(Task<V> task, long delay) {
+        tasks.add(task);
+        task.schedule(Math.max(0, delay));
+        return task;
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        checkpoints++;
+    }
+
+    @Override
+    public void afterDowntime(Downtime downtime) {
+        log.info("Catching up {} scheduled tasks after {}", tasks.size(), downtime);
+        long checkpoint = checkpoints;
+        for (Task<?> task : tasks) {
+            task.catchUp(downtime, checkpoint);
+        }
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return submit(new Task<>(command, unit.toNanos(delay), 0), unit.toNanos(delay));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return submit(new Task<>(callable, unit.toNanos(delay), 0), unit.toNanos(delay));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return submit(new Task<>(command, unit.toNanos(initialDelay), unit.toNanos(period)), unit.toNanos(initialDelay));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return submit(new Task<>(command, unit.toNanos(initialDelay), -unit.toNanos(delay)), unit.toNanos(initialDelay));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(command);
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        return delegate.submit(task);
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        return delegate.submit(task, result);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        return delegate.submit(task);
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        return delegate.invokeAll(tasks);
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+        throws InterruptedException {
+        return delegate.invokeAll(tasks, timeout, unit);
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        return delegate.invokeAny(tasks);
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        return delegate.invokeAny(tasks, timeout, unit);
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        for (Task<?> task : tasks) {
+            task.cancel(false);
+        }
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "CatchUpScheduler(" + delegate.getClass().getName() + "@" +
+            Integer.toHexString(System.identityHashCode(delegate)) + ")";
+    }
+}
@@ -0,0 +1,60 @@
+package io.simonis.schedule;
+
+/**
+ * The time the VM was suspended between the last SUSPEND and RESUME.
+ *
+ * <p>Depending on the hypervisor and the clock source of the guest, the monotonic
+ * clock ({@code System.nanoTime()}) may or may not advance while the VM is
+ * suspended, so both the wall-clock gap and the monotonic gap are recorded.
+ *
+ * @param wallNanos the gap of the wall clock ({@code System.currentTimeMillis()})
+ * @param monotonicNanos the gap of the monotonic clock ({@code System.nanoTime()})
+ */
+public record Downtime(long wallNanos, long monotonicNanos) {
+
+    private static final Downtime NONE = new Downtime(0, 0);
+
+    private static long suspendWall, suspendMonotonic; // guarded by Downtime.class
+    private static volatile Downtime last = NONE;
+
+    /**
+     * Returns the time the monotonic clock missed while the VM was suspended, i.e. the
+     * amount by which timers based on {@code System.nanoTime()} fire too late.
+     */
+    public long skewNanos() {
+        return Math.max(0, wallNanos - monotonicNanos);
+    }
+
+    /**
+     * Records the clocks right before the VM gets suspended.
+     */
+    public static synchronized void suspend() {
+        suspendWall = System.currentTimeMillis();
+        suspendMonotonic = System.nanoTime();
+    }
+
+    /**
+     * Computes the downtime right after the VM was resumed.
+     */
+    public static synchronized Downtime resume() {
+        if (suspendWall == 0) {
+            return last = NONE;
+        }
+        long wall = (System.currentTimeMillis() - suspendWall) * 1_000_000;
+        long monotonic = System.nanoTime() - suspendMonotonic;
+        suspendWall = 0;
+        return last = new Downtime(Math.max(0, wall), Math.max(0, monotonic));
+    }
+
+    /**
+     * Returns the downtime of the last suspend/resume cycle.
+     */
+    public static Downtime last() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return "Downtime: " + wallNanos / 1_000_000 + "ms (monotonic clock: " + monotonicNanos / 1_000_000 + "ms)";
+    }
+}
@@ -0,0 +1,25 @@
+package io.simonis.schedule;
+
+import io.simonis.crac.Context;
+import io.simonis.crac.Resource;
+
+/**
+ * A {@code Resource} which is notified about the {@link Downtime} on restore,
+ * e.g. to expire caches or to reset timeouts and rate limiters.
+ */
+public interface DowntimeAware extends Resource {
+
+    /**
+     * Invoked by {@link #afterRestore(Context)} with the downtime of the last suspend/resume cycle.
+     */
+    void afterDowntime(Downtime downtime) throws Exception;
+
+    @Override
+    default void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+    }
+
+    @Override
+    default void afterRestore(Context<? extends Resource> context) throws Exception {
+        afterDowntime(Downtime.last());
+    }
+}
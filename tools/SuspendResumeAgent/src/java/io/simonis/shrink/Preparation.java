@@ -0,0 +1,112 @@
+package io.simonis.shrink;
+
+import io.simonis.utils.Logger;
+
+import java.util.List;
+
+/**
+ * Runs the expensive part of the {@link ShrinkPipeline} in the background while
+ * the application still serves traffic, either on demand or periodically. If a
+ * preparation has completed recently, SUSPEND only has to run a small delta
+ * pipeline instead of the full one.
+ *
+ * <p>Preparations are blocked between SUSPEND and RESUME and a restore
+ * invalidates the last preparation.
+ */
+public class Preparation {
+
+    private static final Logger log = Logger.getLogger(Preparation.class);
+
+    private static boolean running;  // guarded by Preparation.class
+    private static boolean blocked;  // guarded by Preparation.class
+    private static long preparedAt;  // System.nanoTime() of the last completed preparation, guarded by Preparation.class
+    private static List<ShrinkPipeline.Result> results = List.of(); // guarded by Preparation.class
+
+    /**
+     * Starts a background thread which runs the given steps once.
+     *
+     * @return false if a preparation is already running or preparations are blocked
+     */
+    public static synchronized boolean start(String steps) {
+        if (running || blocked) {
+            return false;
+        }
+        running = true;
+        Thread t = new Thread(() -> prepare(steps), "Preparation");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        return true;
+    }
+
+    /**
+     * Starts a background thread which runs the given steps every {@code intervalMillis}.
+     */
+    public static void startPeriodic(String steps, long intervalMillis) {
+        Thread t = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                synchronized (Preparation.class) {
+                    if (running || blocked) {
+                        continue;
+                    }
+                    running = true;
+                }
+                prepare(steps);
+            }
+        }, "PeriodicPreparation");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    private static void prepare(String steps) {
+        log.info("Starting preparation {}", steps);
+        List<ShrinkPipeline.Result> r = ShrinkPipeline.run(steps);
+        synchronized (Preparation.class) {
+            results = r;
+            preparedAt = System.nanoTime();
+            running = false;
+            Preparation.class.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for a running preparation to finish and blocks new ones until {@link #unblock()}.
+     *
+     * @param maxAgeMillis the maximum age of a usable preparation
+     * @return the results of the last preparation if it completed less than
+     *         {@code maxAgeMillis} ago, otherwise {@code null}
+     */
+    public static synchronized List<ShrinkPipeline.Result> block(long maxAgeMillis) {
+        blocked = true;
+        boolean interrupted = false;
+        while (running) {
+            try {
+                Preparation.class.wait();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (preparedAt != 0 && (System.nanoTime() - preparedAt) / 1_000_000 < maxAgeMillis) {
+            return results;
+        }
+        return null;
+    }
+
+    /**
+     * Allows new preparations and invalidates the last one.
+     */
+    public static synchronized void unblock() {
+        blocked = false;
+        preparedAt = 0;
+        results = List.of();
+    }
+}
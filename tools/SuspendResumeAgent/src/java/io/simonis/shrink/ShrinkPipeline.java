@@ -0,0 +1,128 @@
+package io.simonis.shrink;
+
+import io.simonis.utils.DiagnosticCommand;
+import io.simonis.utils.Logger;
+import io.simonis.utils.MemoryStats;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A configurable pipeline of named {@link ShrinkStep}s which is executed on
+ * SUSPEND to minimize the memory which ends up in the snapshot. For every step
+ * the time spent and the freed resident (RSS) and committed (heap and non-heap)
+ * memory is reported.
+ *
+ * <p>The following steps are predefined. Custom steps can be added with
+ * {@link #register(String, ShrinkStep)}.
+ * <ul>
+ * <li>{@code gc}: a full GC (which also unloads classes and purges Metaspace)</li>
+ * <li>{@code shrink_heap}: a full GC with {@code MinHeapFreeRatio=0} and
+ *     {@code MaxHeapFreeRatio=0} to uncommit as much of the heap as possible</li>
+ * <li>{@code zero_unused}: {@code jcmd System.zero_unused_memory}</li>
+ * <li>{@code trim_native}: {@code jcmd System.trim_native_heap}</li>
+ * </ul>
+ */
+public class ShrinkPipeline {
+
+    private static final Logger log = Logger.getLogger(ShrinkPipeline.class);
+
+    /**
+     * The default pipeline if nothing else is configured.
+     */
+    public static final String DEFAULT_STEPS = "gc,zero_unused,trim_native";
+
+    private static final ConcurrentHashMap<String, ShrinkStep> steps = new ConcurrentHashMap<>();
+    // Serializes shrink_heap between the Preparation thread and SHRINK/UNCOMMIT, otherwise
+    // one could save the 0/0 heap free ratios of the other and restore them permanently
+    private static final Object shrinkHeapLock = new Object();
+
+    static {
+        register("gc", () -> DiagnosticCommand.execute("GC.run"));
+        register("shrink_heap", ShrinkPipeline::shrinkHeap);
+        register("zero_unused", () -> DiagnosticCommand.execute("System.zero_unused_memory"));
+        register("trim_native", () -> DiagnosticCommand.execute("System.trim_native_heap"));
+    }
+
+    /**
+     * The outcome of a single step. Freed bytes are negative if the step increased the footprint.
+     *
+     * @param step the name of the step
+     * @param nanos the time spent in the step
+     * @param rssFreed the reduction of the resident set size in bytes
+     * @param committedFreed the reduction of the committed heap and non-heap memory in bytes
+     * @param error the exception thrown by the step or {@code null}
+     */
+    public record Result(String step, long nanos, long rssFreed, long committedFreed, Exception error) {
+        @Override
+        public String toString() {
+            return "Shrink step " + step + ": " + nanos / 1_000_000 + "ms, freed " +
+                rssFreed / 1024 + "kb rss, " + committedFreed / 1024 + "kb committed" +
+                (error == null ? "" : " (failed with " + error + ")");
+        }
+    }
+
+    /**
+     * Registers (or replaces) the step {@code name}.
+     */
+    public static void register(String name, ShrinkStep step) {
+        steps.put(name, step);
+    }
+
+    /**
+     * Executes the comma separated list of steps in the given order.
+     * Unknown steps are skipped and failing steps don't stop the pipeline.
+     *
+     * @return a {@code Result} for every executed step
+     */
+    public static List<Result> run(String pipeline) {
+        ArrayList<Result> results = new ArrayList<>();
+        for (String name : pipeline.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            ShrinkStep step = steps.get(name);
+            if (step == null) {
+                log.warn("Unknown shrink step {}", name);
+                continue;
+            }
+            long rss = MemoryStats.rss();
+            long committed = MemoryStats.committed(true) + MemoryStats.committed(false);
+            long start = System.nanoTime();
+            Exception error = null;
+            try {
+                step.run();
+            } catch (Exception e) {
+                error = e;
+            }
+            long nanos = System.nanoTime() - start;
+            Result r = new Result(name, nanos, rss - MemoryStats.rss(),
+                                  committed - MemoryStats.committed(true) - MemoryStats.committed(false), error);
+            log.info("{}", r);
+            results.add(r);
+        }
+        return results;
+    }
+
+    private static void shrinkHeap() throws Exception {
+        HotSpotDiagnosticMXBean hsdiag = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        synchronized (shrinkHeapLock) {
+            String minFree = hsdiag.getVMOption("MinHeapFreeRatio").getValue();
+            String maxFree = hsdiag.getVMOption("MaxHeapFreeRatio").getValue();
+            // MinHeapFreeRatio must always be smaller or equal to MaxHeapFreeRatio
+            hsdiag.setVMOption("MinHeapFreeRatio", "0");
+            hsdiag.setVMOption("MaxHeapFreeRatio", "0");
+            try {
+                DiagnosticCommand.execute("GC.run");
+            } finally {
+                hsdiag.setVMOption("MaxHeapFreeRatio", maxFree);
+                hsdiag.setVMOption("MinHeapFreeRatio", minFree);
+            }
+        }
+    }
+}
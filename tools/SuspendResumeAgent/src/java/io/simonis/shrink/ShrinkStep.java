@@ -0,0 +1,16 @@
+package io.simonis.shrink;
+
+/**
+ * A single step of the {@link ShrinkPipeline} which tries to reduce
+ * the memory footprint of the VM before a snapshot is taken.
+ */
+@FunctionalInterface
+public interface ShrinkStep {
+
+    /**
+     * Executes the step.
+     *
+     * @throws Exception if the step has failed
+     */
+    void run() throws Exception;
+}
@@ -0,0 +1,46 @@
+package io.simonis.shrink;
+
+import io.simonis.utils.MemoryStats;
+
+import java.util.List;
+
+/**
+ * Returns as much memory as possible from the VM to the guest kernel, so the host can
+ * reclaim it by inflating the Firecracker balloon device (e.g. with
+ * {@code BALLOON_SIZE=<balloon_mib> fireCRaCer.sh -p}).
+ */
+public class Uncommit {
+
+    /**
+     * @param steps the results of the executed shrink steps
+     * @param freed the reduction of the resident set size of the process in bytes
+     * @param guestAvailable the memory available in the guest afterwards in bytes or -1 if unknown
+     */
+    public record Result(List<ShrinkPipeline.Result> steps, long freed, long guestAvailable) {
+
+        /**
+         * The number of MiB the balloon can be inflated by without taking memory from the VM.
+         */
+        public long balloonMib() {
+            return Math.max(0, freed) >> 20;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            steps.forEach(r -> sb.append(r).append('\n'));
+            return sb.append("freed_bytes: ").append(freed).append('\n')
+                .append("guest_available_bytes: ").append(guestAvailable).append('\n')
+                .append("balloon_mib: ").append(balloonMib()).toString();
+        }
+    }
+
+    /**
+     * Runs the given shrink steps (e.g. "shrink_heap,trim_native") and reports the freed memory.
+     */
+    public static Result run(String steps) {
+        long rss = MemoryStats.rss();
+        List<ShrinkPipeline.Result> results = ShrinkPipeline.run(steps);
+        return new Result(results, rss - MemoryStats.rss(), MemoryStats.readKb("/proc/meminfo", "MemAvailable")[0]);
+    }
+}
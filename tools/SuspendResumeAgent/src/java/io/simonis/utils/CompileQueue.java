@@ -0,0 +1,36 @@
+package io.simonis.utils;
+
+/**
+ * Inspects the queues of the JIT compilers through {@code jcmd Compiler.queue}.
+ */
+public class CompileQueue {
+
+    /**
+     * Returns the number of methods waiting in all the compile queues plus the
+     * number of currently running compilations or -1 if the queues can't be inspected.
+     */
+    public static int depth() {
+        String queue;
+        try {
+            queue = DiagnosticCommand.execute("Compiler.queue");
+        } catch (Exception e) {
+            return -1;
+        }
+        // The output is a "Current compiles:" section followed by a "C1/C2 compile queue:"
+        // section for every compiler. Every section is terminated by an empty line and
+        // contains one task per line or "Empty".
+        int depth = 0;
+        boolean inSection = false;
+        for (String line : queue.split("\n")) {
+            String l = line.strip();
+            if (l.endsWith("compile queue:") || l.equals("Current compiles:")) {
+                inSection = true;
+            } else if (l.isEmpty()) {
+                inSection = false;
+            } else if (inSection && !l.equals("Empty")) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+}
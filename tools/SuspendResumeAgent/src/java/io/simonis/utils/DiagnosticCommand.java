@@ -0,0 +1,70 @@
+package io.simonis.utils;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Executes jcmd diagnostic commands in the current VM through the
+ * {@code com.sun.management:type=DiagnosticCommand} MBean.
+ */
+public class DiagnosticCommand {
+
+    private static MBeanServer mbserver;
+    private static ObjectName diagCmd;
+
+    static {
+        try {
+            mbserver = ManagementFactory.getPlatformMBeanServer();
+            diagCmd = new ObjectName("com.sun.management:type=DiagnosticCommand");
+        } catch (Exception e) {
+            System.err.println("Can't load com.sun.management:type=DiagnosticCommand");
+            e.printStackTrace();
+        }
+    }
+
+    public static boolean isAvailable() {
+        return mbserver != null && diagCmd != null;
+    }
+
+    /**
+     * Executes the diagnostic command {@code cmd} (e.g. "GC.run") and returns its output.
+     *
+     * @throws Exception if the command is unknown or fails
+     */
+    public static String execute(String cmd, String... args) throws Exception {
+        if (!isAvailable()) {
+            throw new IllegalStateException("com.sun.management:type=DiagnosticCommand not available");
+        }
+        return (String)mbserver
+            .invoke(diagCmd , transform(cmd),
+                    new Object[] { args },
+                    new String[] { String[].class.getName()} );
+    }
+
+    /*
+     * Verbose copy from com.sun.management.internal.DiagnosticCommandImpl::transform
+     */
+    private static String transform(String name) {
+        StringBuilder sb = new StringBuilder();
+        boolean toLower = true;
+        boolean toUpper = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '.' || c == '_') {
+                toLower = false;
+                toUpper = true;
+            } else {
+                if (toUpper) {
+                    toUpper = false;
+                    sb.append(Character.toUpperCase(c));
+                } else if(toLower) {
+                    sb.append(Character.toLowerCase(c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
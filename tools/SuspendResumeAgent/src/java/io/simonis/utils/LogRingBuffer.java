@@ -0,0 +1,145 @@
+package io.simonis.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free multi-producer/multi-consumer ring buffer for the
+ * asynchronous mode of {@link Logger} (after Dmitry Vyukov's bounded MPMC queue).
+ *
+ * <p>All events are preallocated. Every slot has a sequence number which tells
+ * producers if the slot is free and consumers if it has been published. Producers
+ * never block: if the buffer is full, the event is dropped and counted. The
+ * buffer is drained by a background thread and by explicit calls to {@link #flush()}.
+ */
+final class LogRingBuffer implements Runnable {
+
+    private static final class Event {
+        int level;
+        Object logger;
+        String format;
+        int arity;
+        Object argument1, argument2;
+        Object[] arguments;
+    }
+
+    private static final long DRAIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Event[] events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // Next position to publish resp. to consume
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    // Number of events completely written to slf4j
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private LogRingBuffer(int size) {
+        // Round up to the next power of two
+        size = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        events = new Event[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            events[i] = new Event();
+            sequences.set(i, i);
+        }
+    }
+
+    static LogRingBuffer start(int size) {
+        LogRingBuffer buffer = new LogRingBuffer(size);
+        Thread t = new Thread(buffer, "LogRingBuffer");
+        t.setDaemon(true);
+        t.start();
+        return buffer;
+    }
+
+    boolean offer(int level, Object logger, String format, int arity, Object argument1, Object argument2, Object[] arguments) {
+        long pos = tail.get();
+        int index;
+        while (true) {
+            index = (int)pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The buffer is full
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        Event e = events[index];
+        e.level = level;
+        e.logger = logger;
+        e.format = format;
+        e.arity = arity;
+        e.argument1 = argument1;
+        e.argument2 = argument2;
+        e.arguments = arguments;
+        // Publish the event
+        sequences.set(index, pos + 1);
+        return true;
+    }
+
+    // Writes the next event to slf4j. Returns false if the buffer is empty.
+    private boolean drainOne() {
+        long pos = head.get();
+        int index;
+        while (true) {
+            index = (int)pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = head.get();
+            }
+        }
+        Event e = events[index];
+        Logger.write(e.level, e.logger, e.format, e.arity, e.argument1, e.argument2, e.arguments);
+        long lost = dropped.get() > 0 ? dropped.getAndSet(0) : 0;
+        if (lost > 0) {
+            Logger.write(Logger.WARN, e.logger, "Dropped {} log events because the log buffer was full", 1, lost, null, null);
+        }
+        e.logger = e.argument1 = e.argument2 = null;
+        e.format = null;
+        e.arguments = null;
+        // Release the slot for the next round of producers
+        sequences.set(index, pos + mask + 1);
+        written.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Writes all the events published before this call and waits until
+     * events which are concurrently written by the background thread are done.
+     */
+    void flush() {
+        long target = tail.get();
+        while (drainOne());
+        while (written.get() < target) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            if (!drainOne()) {
+                LockSupport.parkNanos(DRAIN_INTERVAL);
+            }
+        }
+    }
+}
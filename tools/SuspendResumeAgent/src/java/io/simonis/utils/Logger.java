@@ -1,89 +1,313 @@
 package io.simonis.utils;
 
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.Supplier;
 
 /**
  * Poor man's logging interface without any dependnecies.
  * Checks if it can find org.slf4j.LoggerFactory on the classpath
  * and uses it reflectively if available.
+ *
+ * <p>The slf4j methods are called through cached {@code MethodHandle}s.
+ * Every logging method first checks if its level is enabled, so disabled
+ * logging statements neither call into slf4j nor allocate. Use the
+ * fixed-arity methods to avoid the allocation of a varargs array and
+ * the {@code Supplier} variants for arguments which are expensive to
+ * create (e.g. exceptions which are only logged for their stack trace).
+ *
+ * <p>If the system property {@code io.simonis.utils.Logger.async} is true,
+ * enabled log events are stored into a preallocated, lock-free ring buffer
+ * (of {@code io.simonis.utils.Logger.bufferSize} entries) and written to slf4j
+ * by a background thread. Events are dropped if the buffer is full. Use
+ * {@link #flush()} to write out all buffered events before the VM gets suspended.
  */
 public class Logger {
 
-    private static Class LOGGER_FACTORY;
-    private static Method getLogger;
-    private static Method error, warn, info, debug, trace;
+    static final int ERROR = 0, WARN = 1, INFO = 2, DEBUG = 3, TRACE = 4;
+    private static final String[] LEVELS = { "error", "warn", "info", "debug", "trace" };
+
+    private static MethodHandle getLogger;
+    // Indexed by level and adapted to take the org.slf4j.Logger receiver as Object
+    private static final MethodHandle[] isEnabled = new MethodHandle[LEVELS.length];
+    private static final MethodHandle[] log0 = new MethodHandle[LEVELS.length];
+    private static final MethodHandle[] log1 = new MethodHandle[LEVELS.length];
+    private static final MethodHandle[] log2 = new MethodHandle[LEVELS.length];
+    private static final MethodHandle[] logN = new MethodHandle[LEVELS.length];
 
     static {
         try {
-            LOGGER_FACTORY = Class.forName("org.slf4j.LoggerFactory");
-            getLogger = LOGGER_FACTORY.getMethod("getLogger", Class.class);
-            Class LOGGER = Class.forName("org.slf4j.Logger");
-            error = LOGGER.getMethod("error", String.class, Object[].class);
-            warn = LOGGER.getMethod("warn", String.class, Object[].class);
-            info = LOGGER.getMethod("info", String.class, Object[].class);
-            debug = LOGGER.getMethod("debug", String.class, Object[].class);
-            trace = LOGGER.getMethod("trace", String.class, Object[].class);
-        } catch (Exception ignore) {
-            LOGGER_FACTORY = null;
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> LOGGER_FACTORY = Class.forName("org.slf4j.LoggerFactory");
+            Class<?> LOGGER = Class.forName("org.slf4j.Logger");
+            for (int l = 0; l < LEVELS.length; l++) {
+                String level = LEVELS[l];
+                String enabled = "is" + Character.toUpperCase(level.charAt(0)) + level.substring(1) + "Enabled";
+                isEnabled[l] = lookup.findVirtual(LOGGER, enabled, MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+                log0[l] = lookup.findVirtual(LOGGER, level, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class));
+                log1[l] = lookup.findVirtual(LOGGER, level, MethodType.methodType(void.class, String.class, Object.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class, Object.class));
+                log2[l] = lookup.findVirtual(LOGGER, level, MethodType.methodType(void.class, String.class, Object.class, Object.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class, Object.class, Object.class));
+                logN[l] = lookup.findVirtual(LOGGER, level, MethodType.methodType(void.class, String.class, Object[].class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class, Object[].class));
+            }
+            getLogger = lookup.findStatic(LOGGER_FACTORY, "getLogger", MethodType.methodType(LOGGER, Class.class))
+                .asType(MethodType.methodType(Object.class, Class.class));
+        } catch (Throwable ignore) {
+            getLogger = null;
         }
     }
 
-    private Object logger; // Either a org.slf4j.Logger or null
+    // Only non-null in asynchronous mode
+    private static final LogRingBuffer buffer =
+        (getLogger != null && Boolean.getBoolean("io.simonis.utils.Logger.async")) ?
+        LogRingBuffer.start(Integer.getInteger("io.simonis.utils.Logger.bufferSize", 4096)) : null;
+
+    private final Object logger; // Either a org.slf4j.Logger or null
 
     private Logger(Object logger) {
         this.logger = logger;
     }
 
     public static Logger getLogger(Class c) {
-        if (LOGGER_FACTORY == null) {
+        if (getLogger == null) {
             return new Logger(null);
         } else {
             try {
-                Object logger = getLogger.invoke(null, c);
+                Object logger = (Object)getLogger.invokeExact(c);
                 return new Logger(logger);
-            } catch (Exception ignore) {
+            } catch (Throwable ignore) {
                 return new Logger(null);
             }
         }
     }
 
-    public void error(String format, Object... arguments) {
+    private boolean enabled(int level) {
         if (logger != null) {
             try {
-                error.invoke(logger, format, arguments);
-            } catch (Exception ignore) {}
+                return (boolean)isEnabled[level].invokeExact(logger);
+            } catch (Throwable ignore) {}
+        }
+        return false;
+    }
+
+    private void log(int level, String format) {
+        log(level, format, 0, null, null, null);
+    }
+
+    private void log(int level, String format, Object argument) {
+        log(level, format, 1, argument, null, null);
+    }
+
+    private void log(int level, String format, Object argument1, Object argument2) {
+        log(level, format, 2, argument1, argument2, null);
+    }
+
+    private void log(int level, String format, Object[] arguments) {
+        log(level, format, -1, null, null, arguments);
+    }
+
+    private void log(int level, String format, int arity, Object argument1, Object argument2, Object[] arguments) {
+        if (buffer != null) {
+            buffer.offer(level, logger, format, arity, argument1, argument2, arguments);
+        } else {
+            write(level, logger, format, arity, argument1, argument2, arguments);
+        }
+    }
+
+    // Calls into slf4j. 'arity' is the number of arguments or -1 if they are passed in 'arguments'.
+    static void write(int level, Object logger, String format, int arity, Object argument1, Object argument2, Object[] arguments) {
+        try {
+            switch (arity) {
+                case 0 -> log0[level].invokeExact(logger, format);
+                case 1 -> log1[level].invokeExact(logger, format, argument1);
+                case 2 -> log2[level].invokeExact(logger, format, argument1, argument2);
+                default -> logN[level].invokeExact(logger, format, arguments);
+            }
+        } catch (Throwable ignore) {}
+    }
+
+    /**
+     * Writes out all the log events which have been buffered in asynchronous mode.
+     * Returns immediately in synchronous mode.
+     */
+    public static void flush() {
+        if (buffer != null) {
+            buffer.flush();
+        }
+    }
+
+    public boolean isErrorEnabled() {
+        return enabled(ERROR);
+    }
+
+    public void error(String format) {
+        if (enabled(ERROR)) {
+            log(ERROR, format);
+        }
+    }
+
+    public void error(String format, Object argument) {
+        if (enabled(ERROR)) {
+            log(ERROR, format, argument);
+        }
+    }
+
+    public void error(String format, Object argument1, Object argument2) {
+        if (enabled(ERROR)) {
+            log(ERROR, format, argument1, argument2);
+        }
+    }
+
+    public void error(String format, Object... arguments) {
+        if (enabled(ERROR)) {
+            log(ERROR, format, arguments);
+        }
+    }
+
+    public void error(String format, Supplier<?> argument) {
+        if (enabled(ERROR)) {
+            log(ERROR, format, argument.get());
+        }
+    }
+
+    public boolean isWarnEnabled() {
+        return enabled(WARN);
+    }
+
+    public void warn(String format) {
+        if (enabled(WARN)) {
+            log(WARN, format);
+        }
+    }
+
+    public void warn(String format, Object argument) {
+        if (enabled(WARN)) {
+            log(WARN, format, argument);
+        }
+    }
+
+    public void warn(String format, Object argument1, Object argument2) {
+        if (enabled(WARN)) {
+            log(WARN, format, argument1, argument2);
         }
     }
 
     public void warn(String format, Object... arguments) {
-        if (logger != null) {
-            try {
-                warn.invoke(logger, format, arguments);
-            } catch (Exception ignore) {}
+        if (enabled(WARN)) {
+            log(WARN, format, arguments);
+        }
+    }
+
+    public void warn(String format, Supplier<?> argument) {
+        if (enabled(WARN)) {
+            log(WARN, format, argument.get());
+        }
+    }
+
+    public boolean isInfoEnabled() {
+        return enabled(INFO);
+    }
+
+    public void info(String format) {
+        if (enabled(INFO)) {
+            log(INFO, format);
+        }
+    }
+
+    public void info(String format, Object argument) {
+        if (enabled(INFO)) {
+            log(INFO, format, argument);
+        }
+    }
+
+    public void info(String format, Object argument1, Object argument2) {
+        if (enabled(INFO)) {
+            log(INFO, format, argument1, argument2);
         }
     }
 
     public void info(String format, Object... arguments) {
-        if (logger != null) {
-            try {
-                info.invoke(logger, format, arguments);
-            } catch (Exception ignore) {}
+        if (enabled(INFO)) {
+            log(INFO, format, arguments);
+        }
+    }
+
+    public void info(String format, Supplier<?> argument) {
+        if (enabled(INFO)) {
+            log(INFO, format, argument.get());
+        }
+    }
+
+    public boolean isDebugEnabled() {
+        return enabled(DEBUG);
+    }
+
+    public void debug(String format) {
+        if (enabled(DEBUG)) {
+            log(DEBUG, format);
+        }
+    }
+
+    public void debug(String format, Object argument) {
+        if (enabled(DEBUG)) {
+            log(DEBUG, format, argument);
+        }
+    }
+
+    public void debug(String format, Object argument1, Object argument2) {
+        if (enabled(DEBUG)) {
+            log(DEBUG, format, argument1, argument2);
         }
     }
 
     public void debug(String format, Object... arguments) {
-        if (logger != null) {
-            try {
-                debug.invoke(logger, format, arguments);
-            } catch (Exception ignore) {}
+        if (enabled(DEBUG)) {
+            log(DEBUG, format, arguments);
+        }
+    }
+
+    public void debug(String format, Supplier<?> argument) {
+        if (enabled(DEBUG)) {
+            log(DEBUG, format, argument.get());
+        }
+    }
+
+    public boolean isTraceEnabled() {
+        return enabled(TRACE);
+    }
+
+    public void trace(String format) {
+        if (enabled(TRACE)) {
+            log(TRACE, format);
+        }
+    }
+
+    public void trace(String format, Object argument) {
+        if (enabled(TRACE)) {
+            log(TRACE, format, argument);
+        }
+    }
+
+    public void trace(String format, Object argument1, Object argument2) {
+        if (enabled(TRACE)) {
+            log(TRACE, format, argument1, argument2);
         }
     }
 
     public void trace(String format, Object... arguments) {
-        if (logger != null) {
-            try {
-                trace.invoke(logger, format, arguments);
-            } catch (Exception ignore) {}
+        if (enabled(TRACE)) {
+            log(TRACE, format, arguments);
+        }
+    }
+
+    public void trace(String format, Supplier<?> argument) {
+        if (enabled(TRACE)) {
+            log(TRACE, format, argument.get());
         }
     }
 }
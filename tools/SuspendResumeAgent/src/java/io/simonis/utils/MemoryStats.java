@@ -0,0 +1,101 @@
+package io.simonis.utils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cheap snapshots of the memory consumption of the current process.
+ */
+public class MemoryStats {
+
+    private static final List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+
+    /**
+     * Reads the given fields in the format {@code "Name:     123456 kB"} from a procfs file
+     * like {@code /proc/self/status} or {@code /proc/meminfo}.
+     *
+     * @return the values of the fields in bytes (in the order of {@code names}) where
+     *         fields which can't be found or parsed are -1
+     */
+    public static long[] readKb(String file, String... names) {
+        long[] values = new long[names.length];
+        Arrays.fill(values, -1);
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int colon = line.indexOf(':');
+                for (int i = 0; i < names.length; i++) {
+                    if (colon == names[i].length() && line.startsWith(names[i])) {
+                        try {
+                            values[i] = Long.parseLong(line.substring(colon + 1, line.length() - 2).trim()) * 1024;
+                        } catch (NumberFormatException | IndexOutOfBoundsException e) {}
+                    }
+                }
+            }
+        } catch (IOException e) {}
+        return values;
+    }
+
+    /**
+     * Returns the resident set size of the current process in bytes
+     * (from {@code /proc/self/status}) or -1 if it can't be read.
+     */
+    public static long rss() {
+        return readKb("/proc/self/status", "VmRSS")[0];
+    }
+
+    /**
+     * Returns the summed up usage of all the code cache memory pools ("CodeHeap ..." with a
+     * segmented code cache or "Code Cache" otherwise). The maximum is -1 if it is undefined for one of them.
+     */
+    public static MemoryUsage codeCache() {
+        long init = 0, used = 0, committed = 0, max = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getName().startsWith("CodeHeap") || pool.getName().equals("Code Cache")) {
+                MemoryUsage usage = pool.getUsage();
+                init += Math.max(0, usage.getInit());
+                used += usage.getUsed();
+                committed += usage.getCommitted();
+                max = (max < 0 || usage.getMax() < 0) ? -1 : max + usage.getMax();
+            }
+        }
+        return new MemoryUsage(init, used, committed, max);
+    }
+
+    /**
+     * Returns the sum of the committed memory of all the heap
+     * (or non-heap if {@code heap} is false) memory pools in bytes.
+     */
+    public static long committed(boolean heap) {
+        MemoryType type = heap ? MemoryType.HEAP : MemoryType.NON_HEAP;
+        long committed = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == type) {
+                committed += pool.getUsage().getCommitted();
+            }
+        }
+        return committed;
+    }
+
+    /**
+     * Returns the sum of the used memory of all the heap
+     * (or non-heap if {@code heap} is false) memory pools in bytes.
+     */
+    public static long used(boolean heap) {
+        MemoryType type = heap ? MemoryType.HEAP : MemoryType.NON_HEAP;
+        long used = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == type) {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+}
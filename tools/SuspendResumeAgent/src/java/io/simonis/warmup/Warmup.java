@@ -0,0 +1,180 @@
+package io.simonis.warmup;
+
+import io.simonis.utils.Logger;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Warms up the application after a restore by replaying recorded requests and
+ * registered {@link WarmupTask}s in a background thread at a controlled rate.
+ * This faults in the working set (heap, code cache and Metaspace) and lets
+ * the JIT recompile deoptimized code before real traffic arrives.
+ *
+ * <p>Requests are recorded by the application (e.g. from a servlet filter) with
+ * {@link #recordRequest(String, String)}. Only {@code GET} and {@code HEAD}
+ * requests are recorded because replaying them doesn't modify the application
+ * state. A uniform sample of all the recorded requests is kept (reservoir sampling).
+ * Recorded requests are replayed against {@code io.simonis.warmup.baseUri}
+ * (defaults to {@code http://localhost:8080}). Recorded requests which don't form
+ * a valid URI are skipped. No requests are recorded while a warm-up is running,
+ * because the replayed requests pass through the same recording code.
+ */
+public class Warmup {
+
+    private static final Logger log = Logger.getLogger(Warmup.class);
+
+    private static final int sampleSize = Math.max(0, Integer.getInteger("io.simonis.warmup.sampleSize", 100));
+    private static final String baseUri = System.getProperty("io.simonis.warmup.baseUri", "http://localhost:8080");
+    // Tasks per second and number of times all tasks are replayed
+    private static final int rate = Integer.getInteger("io.simonis.warmup.rate", 20);
+    private static final int rounds = Integer.getInteger("io.simonis.warmup.rounds", 1);
+
+    private static final AtomicReferenceArray<String[]> sample = new AtomicReferenceArray<>(sampleSize);
+    private static final AtomicLong recorded = new AtomicLong();
+    private static final CopyOnWriteArrayList<WarmupTask> tasks = new CopyOnWriteArrayList<>();
+
+    // Progress of the current warm-up
+    private static volatile int total, done, failed;
+    private static volatile long startNanos, endNanos;
+    private static volatile boolean replaying;
+    private static Thread driver; // guarded by Warmup.class
+
+    /**
+     * Registers a task which is replayed after every restore.
+     */
+    public static void register(WarmupTask task) {
+        tasks.add(task);
+    }
+
+    /**
+     * Records a request for replay. This is cheap and can be called for every inbound request.
+     *
+     * @param method the HTTP method of the request (only GET and HEAD are recorded)
+     * @param uri the path and query of the request (e.g. "/owners?lastName=")
+     */
+    public static void recordRequest(String method, String uri) {
+        if (sampleSize <= 0 || replaying || !("GET".equals(method) || "HEAD".equals(method))) {
+            return;
+        }
+        long n = recorded.getAndIncrement();
+        if (n < sampleSize) {
+            sample.set((int)n, new String[] { method, uri });
+        } else {
+            long slot = ThreadLocalRandom.current().nextLong(n + 1);
+            if (slot < sampleSize) {
+                sample.set((int)slot, new String[] { method, uri });
+            }
+        }
+    }
+
+    private static List<WarmupTask> replayTasks() {
+        ArrayList<WarmupTask> list = new ArrayList<>(tasks);
+        HttpClient client = null;
+        for (int i = 0; i < sampleSize; i++) {
+            String[] request = sample.get(i);
+            if (request == null) {
+                continue;
+            }
+            if (client == null) {
+                client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+            }
+            HttpClient c = client;
+            HttpRequest r;
+            try {
+                r = HttpRequest.newBuilder(URI.create(baseUri + request[1]))
+                    .method(request[0], HttpRequest.BodyPublishers.noBody())
+                    .timeout(Duration.ofSeconds(10))
+                    .build();
+            } catch (IllegalArgumentException iae) {
+                // The recorded path isn't a valid URI (e.g. an unescaped space)
+                log.debug("Skipping invalid warm-up request {} {}", request[0], request[1]);
+                continue;
+            }
+            list.add(() -> c.send(r, HttpResponse.BodyHandlers.discarding()));
+        }
+        return list;
+    }
+
+    /**
+     * Starts replaying the recorded requests and registered tasks in a background thread.
+     *
+     * @return false if there's nothing to replay or a warm-up is still running
+     */
+    public static synchronized boolean start() {
+        if (driver != null && driver.isAlive()) {
+            return false;
+        }
+        List<WarmupTask> list = replayTasks();
+        if (list.isEmpty() || rounds <= 0) {
+            return false;
+        }
+        total = list.size() * rounds;
+        done = failed = 0;
+        startNanos = System.nanoTime();
+        endNanos = 0;
+        replaying = true;
+        driver = new Thread(() -> replay(list), "Warmup");
+        driver.setDaemon(true);
+        driver.start();
+        return true;
+    }
+
+    private static void replay(List<WarmupTask> list) {
+        try {
+            replayRounds(list);
+        } finally {
+            replaying = false;
+        }
+    }
+
+    private static void replayRounds(List<WarmupTask> list) {
+        long interval = rate > 0 ? 1_000_000_000L / rate : 0;
+        long next = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (WarmupTask task : list) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1_000_000, (int)(wait % 1_000_000));
+                    } catch (InterruptedException ie) {
+                        endNanos = System.nanoTime();
+                        return;
+                    }
+                }
+                next += interval;
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    failed++;
+                    log.debug("Warm-up task failed:", e);
+                }
+                done++;
+            }
+        }
+        endNanos = System.nanoTime();
+        log.info("{}", status());
+    }
+
+    /**
+     * Returns a human readable progress report of the last warm-up.
+     */
+    public static String status() {
+        if (startNanos == 0) {
+            return "Warm-up: not started (" + recorded.get() + " requests recorded, " + tasks.size() + " tasks registered)";
+        }
+        long end = endNanos;
+        long millis = ((end != 0 ? end : System.nanoTime()) - startNanos) / 1_000_000;
+        return "Warm-up: " + done + "/" + total + " tasks (" + failed + " failed) in " + millis + "ms" +
+            (end != 0 ? "" : " (running)");
+    }
+}
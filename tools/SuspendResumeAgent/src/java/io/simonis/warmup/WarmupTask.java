@@ -0,0 +1,16 @@
+package io.simonis.warmup;
+
+/**
+ * A unit of work which exercises a hot code path of the application
+ * (e.g. a representative request) and is replayed after a restore.
+ */
+@FunctionalInterface
+public interface WarmupTask {
+
+    /**
+     * Executes the task once.
+     *
+     * @throws Exception if the task has failed
+     */
+    void run() throws Exception;
+}
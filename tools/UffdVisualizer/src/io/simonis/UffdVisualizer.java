@@ -1,12 +1,17 @@
 package io.simonis;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
@@ -140,6 +145,46 @@ class ReservedMapping extends VirtualMapping {
     }
 }
 
+// A group of non-contiguous regions of the same type (e.g. all the G1 "Eden" regions)
+class RegionGroup extends ReservedMapping {
+    public RegionGroup(String info) {
+        super(-1, 0, info);
+    }
+    @Override
+    public long size() {
+        long size = 0;
+        for (VirtualMapping vm : committedMappings()) {
+            size += vm.size();
+        }
+        return size;
+    }
+    @Override
+    public long rss() {
+        long rss = 0;
+        for (VirtualMapping vm : committedMappings()) {
+            rss += vm.rss();
+        }
+        return rss;
+    }
+    @Override
+    public long reloaded() {
+        long reloaded = 0;
+        for (VirtualMapping vm : committedMappings()) {
+            reloaded += vm.reloaded();
+        }
+        return reloaded;
+    }
+    @Override
+    public boolean contains(long address) {
+        for (VirtualMapping vm : committedMappings()) {
+            if (vm.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
+
 // Maps a physical address to an Object array:
 //   Object[0]: an ArrayList of PidVirtual (i.e. the pids and the virtual address
 //              within that pid that map the corresponding physical address).
@@ -219,6 +264,7 @@ class MemMapTreeModel implements TreeModel {
     private HashMap<Integer, String> processMapping;
     private HashMap<Integer, Vector<VirtualMapping>> virtualMappings;
     private HashMap<Integer, Vector<VirtualMapping>> nmtMappings;
+    private HashMap<Integer, Vector<VirtualMapping>> regionMappings;
     private Vector<Process> processes = new Vector<>();
 
     static class Memory {
@@ -229,20 +275,26 @@ class MemMapTreeModel implements TreeModel {
     static class Process extends Memory {
         private String process;
         private int pid;
-        private Object[] mappings;
-        public Process(String process, int pid, int mappings) {
+        private Vector<Memory> mappings = new Vector<>();
+        public Process(String process, int pid, boolean nmt, boolean regions) {
             this.process = process;
             this.pid = pid;
-            this.mappings = new Object[mappings];
+            mappings.add(new Pmap(this));
+            if (nmt) {
+                mappings.add(new NMT(this));
+            }
+            if (regions) {
+                mappings.add(new Regions(this));
+            }
         }
         public int mappings() {
-            return mappings.length;
+            return mappings.size();
         }
         public Object getMapping(int index) {
-            if (mappings[index] == null) {
-                mappings[index] = index == 0 ? new Pmap(this) : new NMT(this);
-            }
-            return mappings[index];
+            return mappings.get(index);
+        }
+        public int indexOf(Object mapping) {
+            return mappings.indexOf(mapping);
         }
         public int pid() {
             return pid;
@@ -281,17 +333,33 @@ class MemMapTreeModel implements TreeModel {
         }
     }
 
+    static class Regions extends Memory {
+        private Process process;
+        public Regions(Process process) {
+            this.process = process;
+        }
+        public Process process() {
+            return process;
+        }
+        @Override
+        public String toString() {
+            return "Regions";
+        }
+    }
+
     public MemMapTreeModel(HashMap<Integer, String> processMapping,
                            HashMap<Integer, Vector<VirtualMapping>> virtualMappings,
-                           HashMap<Integer, Vector<VirtualMapping>> nmtMappings) {
+                           HashMap<Integer, Vector<VirtualMapping>> nmtMappings,
+                           HashMap<Integer, Vector<VirtualMapping>> regionMappings) {
         this.processMapping = processMapping;
         this.virtualMappings = virtualMappings;
         this.nmtMappings = nmtMappings;
+        this.regionMappings = regionMappings;
         processes = new Vector<>();
         processMapping.forEach((pid, exe) -> {
             int slash = exe.lastIndexOf('/');
             processes.add(new Process(pid + ": " + (slash == -1 ? exe : exe.substring(slash + 1)),
-                                      pid, nmtMappings.get(pid) == null ? 1 : 2));
+                                      pid, nmtMappings.get(pid) != null, regionMappings.get(pid) != null));
         });
         processes.sort(Comparator.comparing(p -> Integer.valueOf(p.toString().substring(0, p.toString().indexOf(':')))));
     }
@@ -306,6 +374,8 @@ class MemMapTreeModel implements TreeModel {
             return virtualMappings.get(((Pmap)parent).process().pid()).get(index);
         } else if (parent instanceof NMT) {
             return nmtMappings.get(((NMT)parent).process().pid()).get(index);
+        } else if (parent instanceof Regions) {
+            return regionMappings.get(((Regions)parent).process().pid()).get(index);
         } else if (parent instanceof ReservedMapping) {
             return ((ReservedMapping)parent).committedMappings().get(index);
         } else {
@@ -324,6 +394,8 @@ class MemMapTreeModel implements TreeModel {
             return virtualMappings.get(((Pmap)parent).process().pid()).size();
         } else if (parent instanceof NMT) {
             return nmtMappings.get(((NMT)parent).process().pid()).size();
+        } else if (parent instanceof Regions) {
+            return regionMappings.get(((Regions)parent).process().pid()).size();
         } else if (parent instanceof ReservedMapping) {
             Vector<VirtualMapping> cm = ((ReservedMapping)parent).committedMappings();
             return (cm == null) ? 0 : cm.size();
@@ -337,11 +409,13 @@ class MemMapTreeModel implements TreeModel {
         if (parent == ROOT) {
             return processes.indexOf(child);
         } else if (parent instanceof Process) {
-            return (child instanceof Pmap) ? 0 : 1;
+            return ((Process)parent).indexOf(child);
         } else if (parent instanceof Pmap) {
             return virtualMappings.get(((Pmap)parent).process().pid()).indexOf(child);
         } else if (parent instanceof NMT) {
             return nmtMappings.get(((NMT)parent).process().pid()).indexOf(child);
+        } else if (parent instanceof Regions) {
+            return regionMappings.get(((Regions)parent).process().pid()).indexOf(child);
         } else if (parent instanceof ReservedMapping) {
             return ((ReservedMapping)parent).committedMappings().indexOf(child);
         } else {
@@ -390,7 +464,9 @@ class MemMapTreeModel implements TreeModel {
         return switch (node) {
             case VirtualMapping vm -> {
                 String head = vm.info();
-                if (vm instanceof ReservedMapping) {
+                if (vm instanceof RegionGroup rg) {
+                    head = String.format("%s (%d regions)", rg.info(), rg.committedMappings().size());
+                } else if (vm instanceof ReservedMapping) {
                     head = String.format("%#018x-%#018x", vm.start(), vm.end());
                 }
                 yield toHTML(head, vm.size(), vm.rss(), vm.reloaded());
@@ -418,19 +494,21 @@ class MemMapTreeModel implements TreeModel {
     public boolean contains(Object node, long virtAddr) {
         return switch (node) {
             case VirtualMapping vm -> vm.contains(virtAddr);
-            case NMT nmt -> {
-                int mappings = getChildCount(nmt);
-                for (int m = 0; m < mappings; m++) {
-                    VirtualMapping vm = (VirtualMapping)getChild(nmt, m);
-                    if (vm.contains(virtAddr)) {
-                        yield true;
-                    }
-                }
-                yield false;
-            }
+            case NMT nmt -> containsAny(nmt, virtAddr);
+            case Regions regions -> containsAny(regions, virtAddr);
             default -> false;
         };
     }
+    private boolean containsAny(Memory mem, long virtAddr) {
+        int mappings = getChildCount(mem);
+        for (int m = 0; m < mappings; m++) {
+            VirtualMapping vm = (VirtualMapping)getChild(mem, m);
+            if (vm.contains(virtAddr)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
 
 final class ReplayThreadState {
@@ -566,6 +644,7 @@ class PhysicalViewPanel extends JPanel implements TreeSelectionListener, ActionL
     public PhysicalViewPanel(HashMap<Integer, String> processMapping,
                              HashMap<Integer, Vector<VirtualMapping>> virtualMappings,
                              HashMap<Integer, Vector<VirtualMapping>> nmtMappings,
+                             HashMap<Integer, Vector<VirtualMapping>> regionMappings,
                              HashMap<Integer, TreeMap<Long, Long>> v2pMappings,
                              PhysicalMapping physicalMapping,
                              UffdState uffdState) {
@@ -573,7 +652,7 @@ class PhysicalViewPanel extends JPanel implements TreeSelectionListener, ActionL
         this.physicalMapping = physicalMapping;
         this.v2pMappings = v2pMappings;
         this.uffdState = uffdState;
-        MemMapTreeModel treeModel = new MemMapTreeModel(processMapping, virtualMappings, nmtMappings);
+        MemMapTreeModel treeModel = new MemMapTreeModel(processMapping, virtualMappings, nmtMappings, regionMappings);
         processTree = new JTree(treeModel);
         processTree.setFont(new Font(Font.MONOSPACED, Font.PLAIN, processTree.getFont().getSize()));
         processTree.setRootVisible(false);
@@ -654,6 +733,7 @@ class PhysicalViewPanel extends JPanel implements TreeSelectionListener, ActionL
         return switch (tp.getLastPathComponent()) {
             case VirtualMapping vm -> vm;
             case MemMapTreeModel.NMT nmt -> nmt;
+            case MemMapTreeModel.Regions regions -> regions;
             default -> null;
         };
     }
@@ -813,6 +893,8 @@ public class UffdVisualizer {
     private HashMap<Integer, Vector<VirtualMapping>> virtualMappings;
     // Per Java process list of NMT mappings
     private HashMap<Integer, Vector<VirtualMapping>> nmtMappings;
+    // Per Java process list of heap, code heap and CDS region groups
+    private HashMap<Integer, Vector<VirtualMapping>> regionMappings;
     // Per process list of all virtual to physical mappings
     private HashMap<Integer, TreeMap<Long, Long>> v2pMappings;
     // Pid to executable mapping
@@ -851,6 +933,55 @@ public class UffdVisualizer {
         }
     }
 
+    // Magic number of the binary mappings file written by the SuspendResumeAgent's PageMapCollector
+    private static final int PAGEMAP_MAGIC = 0x4643504d; // 'FCPM'
+
+    private static boolean isBinaryMappings(File mappings) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(mappings))) {
+            return in.readInt() == PAGEMAP_MAGIC;
+        } catch (EOFException eofe) {
+            return false;
+        }
+    }
+    private void processBinaryMappings(File mappings) throws IOException {
+        // See io.simonis.memory.PageMapCollector for a description of the format
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mappings), 1024 * 1024))) {
+            in.readInt(); // magic
+            if (in.readInt() != 1 || in.readInt() != pageSize) {
+                throw new IOException("Unsupported version or page size in " + mappings);
+            }
+            int pid = 0;
+            for (int record = in.readByte(); record != '.'; record = in.readByte()) {
+                switch (record) {
+                    case '=' -> {
+                        pid = in.readInt();
+                        processMapping.put(pid, in.readUTF());
+                        virtualMappings.put(pid, new Vector<VirtualMapping>());
+                        v2pMappings.put(pid, new TreeMap<Long, Long>());
+                    }
+                    case 'v' -> {
+                        long start = in.readLong();
+                        long end = in.readLong();
+                        String info = in.readUTF();
+                        virtualMappings.get(pid).add(new VirtualMapping(start, end, info.isEmpty() ? null : info));
+                    }
+                    case 'p' -> {
+                        long virtual = in.readLong();
+                        long physical = in.readLong();
+                        int pages = in.readInt();
+                        in.readByte(); // flags
+                        TreeMap<Long, Long> v2p = v2pMappings.get(pid);
+                        for (int p = 0; p < pages; p++, virtual += pageSize, physical += pageSize) {
+                            physicalMapping.put(physical, pid, virtual);
+                            v2p.put(virtual, physical);
+                        }
+                    }
+                    default -> throw new IOException("Unknown record '" + (char)record + "' in " + mappings);
+                }
+            }
+        }
+    }
+
     private void processUffdLine(UffdState uffdState, PhysicalMapping physicalMapping, String line) {
         // A line in the uffd log file looks as follows:
         // UFFD_EVENT_PAGEFAULT (r): 0x00007fffbbaa4000 0x00007fffbbaa4000  Loading: 0x0000000003cb5000 - 0x0000000003cb6000
@@ -921,16 +1052,59 @@ public class UffdVisualizer {
         }
     }
 
-    public UffdVisualizer(File mappings, File uffd, File nmt) {
+    static class RegionsParserState {
+        int pid = 0;
+        int regions = 0;
+        LinkedHashMap<String, RegionGroup> groups = new LinkedHashMap<>();
+    }
+    private void processRegionsLine(RegionsParserState rs, String line) {
+        // The region file is written by the SuspendResumeAgent's "REGIONS" command and looks as follows:
+        // <pid>:
+        // h 0x00000000a2000000 0x00000000a2100000 1048576 Eden
+        // c 0x00007fea38ec7000 0x00007fea39137000 2555904 CodeHeap non-profiled nmethods
+        // s 0x0000000800000000 0x0000000800bc6000 12345344 CDS archive
+        if (rs.pid == 0) {
+            if (line.matches("\\d+:")) {
+                rs.pid = Integer.parseInt(line.substring(0, line.length() - 1));
+            }
+            return;
+        }
+        String fields[] = line.split(" ", 5);
+        if (fields.length < 5) {
+            return;
+        }
+        String group = switch (fields[0]) {
+            case "h" -> "Heap: ";
+            case "c" -> "Code: ";
+            case "s" -> "CDS: ";
+            default -> null;
+        };
+        if (group == null) {
+            return;
+        }
+        VirtualMapping vm = new VirtualMapping(Long.parseUnsignedLong(fields[1], 2, 18, 16),
+                                               Long.parseUnsignedLong(fields[2], 2, 18, 16),
+                                               String.format("%s (used: %dkb)", fields[4], Long.parseLong(fields[3]) / 1024));
+        vm.setPhysicalState(v2pMappings.get(rs.pid), physicalMapping);
+        rs.groups.computeIfAbsent(group + fields[4], RegionGroup::new).addCommittedMapping(vm);
+        rs.regions++;
+    }
+
+    public UffdVisualizer(File mappings, File uffd, File nmt, File regions) {
         physicalMapping = new PhysicalMapping();
         virtualMappings = new HashMap<Integer, Vector<VirtualMapping>>();
         nmtMappings = new HashMap<Integer, Vector<VirtualMapping>>();
+        regionMappings = new HashMap<Integer, Vector<VirtualMapping>>();
         v2pMappings = new HashMap<Integer, TreeMap<Long, Long>>();
         processMapping = new HashMap<Integer, String>();
         long start = System.currentTimeMillis();
         try {
-            ProcessMappingsState pms = new ProcessMappingsState();
-            Files.lines(mappings.toPath()).forEach(l -> processMappingsLine(pms, l));
+            if (isBinaryMappings(mappings)) {
+                processBinaryMappings(mappings);
+            } else {
+                ProcessMappingsState pms = new ProcessMappingsState();
+                Files.lines(mappings.toPath()).forEach(l -> processMappingsLine(pms, l));
+            }
             long parsedMappings = System.currentTimeMillis();
 
             System.out.println(String.format("Parsed %d mappings for %d processes in %dms.",
@@ -969,6 +1143,18 @@ public class UffdVisualizer {
                                                  ps.vm.size(), ps.pid, System.currentTimeMillis() - parsedUffd));
                 nmtMappings.put(ps.pid, ps.vm);
             }
+            if (regions != null) {
+                long regionsStart = System.currentTimeMillis();
+                final RegionsParserState rs = new RegionsParserState();
+                Files.lines(regions.toPath()).forEach(l -> processRegionsLine(rs, l));
+                if (v2pMappings.get(rs.pid) == null) {
+                    System.err.println("Regions Parse Error: no mappings for process " + rs.pid);
+                } else {
+                    System.out.println(String.format("Parsed %d regions in %d groups for Java process %d in %dms.",
+                                                     rs.regions, rs.groups.size(), rs.pid, System.currentTimeMillis() - regionsStart));
+                    regionMappings.put(rs.pid, new Vector<>(rs.groups.values()));
+                }
+            }
         } catch (IOException ioe) {
             System.err.println(ioe);
             System.exit(-1);
@@ -978,7 +1164,7 @@ public class UffdVisualizer {
     public void createFrame() {
         JTabbedPane tabbedPane = new JTabbedPane();
         tabbedPane.addTab("Physical View",
-                          new PhysicalViewPanel(processMapping, virtualMappings, nmtMappings, v2pMappings, physicalMapping, uffdState));
+                          new PhysicalViewPanel(processMapping, virtualMappings, nmtMappings, regionMappings, v2pMappings, physicalMapping, uffdState));
         JFrame frame = new JFrame();
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.getContentPane().add(tabbedPane);
@@ -987,11 +1173,11 @@ public class UffdVisualizer {
     }
 
     private static void help() {
-        System.out.println("\nio.simonis.UffdVisualizer <mapings-file> <uffd-file> [nmt-file]\n");
+        System.out.println("\nio.simonis.UffdVisualizer <mapings-file> <uffd-file> [nmt-file|- [regions-file]]\n");
         System.exit(-1);
     }
     public static void main(String args[]) {
-        if (args.length < 2 || args.length > 3) {
+        if (args.length < 2 || args.length > 4) {
             help();
         }
         File mappings = new File(args[0]);
@@ -1005,16 +1191,24 @@ public class UffdVisualizer {
             System.exit(-1);
         }
         File nmt = null;
-        if (args.length == 3) {
+        if (args.length >= 3 && !"-".equals(args[2])) {
             nmt = new File(args[2]);
             if (!nmt.canRead()) {
                 System.err.println("Can't read " + nmt);
                 System.exit(-1);
             }
         }
+        File regions = null;
+        if (args.length == 4) {
+            regions = new File(args[3]);
+            if (!regions.canRead()) {
+                System.err.println("Can't read " + regions);
+                System.exit(-1);
+            }
+        }
         ToolTipManager.sharedInstance().setDismissDelay(Integer.MAX_VALUE);
         ToolTipManager.sharedInstance().setInitialDelay(0);
-        UffdVisualizer uffdVisualizer = new UffdVisualizer(mappings, uffd, nmt);
+        UffdVisualizer uffdVisualizer = new UffdVisualizer(mappings, uffd, nmt, regions);
         uffdVisualizer.createFrame();
     }
 }